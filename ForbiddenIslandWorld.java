@@ -1,4 +1,8 @@
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.imageio.ImageIO;
 
 import tester.*;
 import javalib.impworld.*;
@@ -6,7 +10,27 @@ import javalib.colors.*;
 import javalib.worldcanvas.*;
 import javalib.worldimages.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 interface IFunc<T, R> {
     R apply(T element, R base);
@@ -64,21 +88,28 @@ class Cons<T> implements IList<T> {
         return this;
     }
 
+    // walks the list rather than recursing, so long lists do not overflow
+    // the stack
     public T get(int index) {
-        if(index == 0) {
-            return this.first;
+        if(index < 0) {
+            throw new RuntimeException("index out of bounds");
         }
-        else {
-            return this.rest.get(index - 1);
+        IList<T> list = this;
+        for(; index > 0 && list instanceof Cons; index--) {
+            list = ((Cons<T>) list).rest;
         }
+        return index == 0 && list instanceof Cons ? ((Cons<T>) list).first : list.get(index);
     }
 
     public Iterator<T> iterator() {
         return new IListIterator<T>(this);
     }
     public <R> R foldr(R base, IFunc<T, R> func) {
-        base = func.apply(this.first, base);
-        return this.rest.foldr(base, func);
+        IList<T> list = this;
+        for(; list instanceof Cons; list = ((Cons<T>) list).rest) {
+            base = func.apply(((Cons<T>) list).first, base);
+        }
+        return list.foldr(base, func);
     }
 }
 class Empty<T> implements IList<T> {
@@ -97,7 +128,6 @@ class Empty<T> implements IList<T> {
         return new IListIterator<T>(this);
     }
 }
-// Represents a single square of the game area
 class Cell {
     // represents absolute height of this cell, in feet
     double height;
@@ -107,6 +137,8 @@ class Cell {
     Cell left, top, right, bottom;
     // reports whether this cell is flooded or not
     boolean isFlooded;
+    // the image this cell was last drawn as
+    RectangleImage tile;
     Cell(double height, int x, int y, Cell left, Cell top, Cell right, Cell bottom, boolean isFlooded) {
         this.height = height;
         this.x = x;
@@ -131,43 +163,51 @@ class Cell {
         }
         boolean onCoast = this.left.isFlooded || this.top.isFlooded ||
                 this.right.isFlooded || this.bottom.isFlooded;
-        if(onCoast) {
-            if(this.height <= waterHeight) {
-                this.isFlooded = true;
-                this.left.adjustForFlooding(waterHeight);
-                this.right.adjustForFlooding(waterHeight);
-                this.bottom.adjustForFlooding(waterHeight);
-                this.top.adjustForFlooding(waterHeight);
+        if(onCoast && this.height <= waterHeight) {
+            this.isFlooded = true;
+            // spread with a work queue, so large low-lying areas cannot
+            // overflow the stack
+            ArrayDeque<Cell> work = new ArrayDeque<Cell>();
+            work.add(this);
+            while(!work.isEmpty()) {
+                Cell c = work.poll();
+                c.floodNeighbor(c.left, waterHeight, work);
+                c.floodNeighbor(c.right, waterHeight, work);
+                c.floodNeighbor(c.bottom, waterHeight, work);
+                c.floodNeighbor(c.top, waterHeight, work);
             }
         }
     }
+    // floods the given neighbour of this flooded cell if the water reaches it,
+    // and queues it to spread further
+    void floodNeighbor(Cell that, int waterHeight, ArrayDeque<Cell> work) {
+        if(!that.isFlooded && that.height <= waterHeight) {
+            that.isFlooded = true;
+            work.add(that);
+        }
+    }
 
-    // render this cell
+    // render this cell, reusing the last tile drawn for it when its colour
+    // has not changed
     RectangleImage renderCell(int waterHeight) {
-        if (!this.isFlooded) {
-            if(this.height > waterHeight) {
-                return new RectangleImage(new Posn(this.x * 8 + 4, this.y * 8 + 4),
-                        8,
-                        8,
-                        new Color((int)(Math.min(this.height - waterHeight, 32) * 8 - 1),
-                                255,
-                                (int)(Math.min(this.height - waterHeight, 32) * 8 - 1)));
-            }
-            return new RectangleImage(new Posn(this.x * 8 + 4, this.y * 8 + 4),
-                    8,
-                    8,
-                    new Color(((int)(Math.min((Math.min(waterHeight - this.height, 11) * 16 + 64), 255))),
-                            (Math.min(255 - (int)(Math.min(waterHeight - this.height, 31) * 8 + 1), 64)), 0));
-
+        return this.tileFor(this.colorAt(waterHeight));
+    }
+    RectangleImage tileFor(Color color) {
+        if(this.tile != null && this.tile.color == color) {
+            CellPalette.hits.increment();
         }
         else {
-            return new RectangleImage(new Posn(this.x * 8 + 4, this.y * 8 + 4),
+            CellPalette.misses.increment();
+            this.tile = new RectangleImage(new Posn(this.x * 8 + 4, this.y * 8 + 4),
                     8,
                     8,
-                    new Color(0,
-                            0,
-                            (int)(255 - (Math.min(this.height, 31) * 8)))); 
+                    color);
         }
+        return this.tile;
+    }
+    // the colour of this cell when the water is at the given height
+    Color colorAt(int waterHeight) {
+        return CellPalette.colorOf(this.isFlooded, this.height, waterHeight);
     }
 }
 class OceanCell extends Cell {
@@ -176,408 +216,4207 @@ class OceanCell extends Cell {
     }
 
     RectangleImage renderCell() {
-        return new RectangleImage(new Posn(this.x*8 + 4, this.y*8 + 4),
-                8,
-                8,
-                new Blue());
+        return this.tileFor(CellPalette.colorOf(true, 0, 0));
     }
 }
-class ForbiddenIslandWorld extends World {
-    // All the cells of the game, including the ocean
-    IList<Cell> board;
-
-    Player players;
-
-    ArrayList<Piece> pickups;
-
-    Helicopter copter;
-
-    // -1 if lost, 1 if won, 0 if not over
-    int gameOver;
-    int score;
-    
-    boolean pause;
-
-    // the current height of the ocean
-    int waterHeight;
-    int count;
-    static final int ISLAND_SIZE = 64;
-    ForbiddenIslandWorld(String mode) {
-        this.reset(mode);
-        this.pause = true;
+// Every colour a cell can be drawn in, made once. A cell's colour only depends
+// on whether it is flooded and on its height above or below the water, clamped,
+// so drawing a cell is a table lookup rather than a new Color.
+class CellPalette {
+    // dry land above the water, by how much its red and blue are lightened
+    static final Color[] LAND = new Color[256];
+    // dry land below the water, by CellPalette.shoreIndex
+    static final Color[] SHORE = new Color[241];
+    // flooded cells, by their amount of blue
+    static final Color[] WATER = new Color[256];
+    // how often a cell's previous tile could be drawn again, and how often not
+    static final LongAdder hits = new LongAdder();
+    static final LongAdder misses = new LongAdder();
+    static {
+        for(int i = 0; i < 256; i++) {
+            LAND[i] = new Color(i, 255, i);
+            WATER[i] = new Color(0, 0, i);
+        }
+        for(int red = 64; red <= 240; red++) {
+            SHORE[CellPalette.shoreIndex(red, 64)] = new Color(red, 64, 0);
+        }
+        for(int green = 0; green < 64; green++) {
+            SHORE[CellPalette.shoreIndex(240, green)] = new Color(240, green, 0);
+        }
     }
-    public void reset(String mode) {
-        this.score = 0;
-        this.waterHeight = 0;
-        this.count = 0;
-        this.gameOver = 0;
-        this.pause = false;
-        if (mode.equals("m")) {
-            this.board = this.makeOrderedBoard();
+    static Color colorOf(boolean isFlooded, double height, int waterHeight) {
+        if (!isFlooded) {
+            if(height > waterHeight) {
+                return LAND[(int)(Math.min(height - waterHeight, 32) * 8 - 1)];
+            }
+            return SHORE[CellPalette.shoreIndex((int)(Math.min((Math.min(waterHeight - height, 11) * 16 + 64), 255)),
+                    Math.min(255 - (int)(Math.min(waterHeight - height, 31) * 8 + 1), 64))];
         }
-        else if (mode.equals("r")) {
-            this.board = this.makeRandomBoard();
+        else {
+            return WATER[(int)(255 - (Math.min(height, 31) * 8))];
         }
-        else if (mode.equals("t")) {
-            this.board = this.makeAnnoyingBoard();
+    }
+    // land below the water turns red first and only loses its green once it
+    // is fully red, so its two channels fit in one index
+    static int shoreIndex(int red, int green) {
+        return (red - 64) + (64 - green);
+    }
+    // the fraction of cell draws that reused a tile
+    static double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double)hit / total;
+    }
+}
+// A dense grid of cells stored in row-major order, so that any cell can be
+// reached in constant time either by (x, y) or by its index y * width + x
+class Board implements IList<Cell> {
+    // the number of columns and rows of this board
+    int width, height;
+    // the height of every cell, indexed like the cells
+    double[] heights;
+    // every cell of this board, including the ocean
+    Cell[] cells;
+    // the heights are copied, since the ocean's are set to 0 and the caller's
+    // array is left as it was
+    Board(int width, int height, double[] heights) {
+        this(width, height, heights, true);
+    }
+    // without copying, the board keeps the given array as its heights, for
+    // callers that made it only to build the board from
+    Board(int width, int height, double[] heights, boolean copy) {
+        if (heights.length != width * height) {
+            throw new IllegalArgumentException("heights do not match a " + width + "x" + height + " board");
         }
-        this.players = new Player(this.board);
-        this.pickups = new ArrayList<Piece>();
-        for(int i = 0; i < 4; i++) {
-            this.pickups.add(new Piece(this.board));
-        }
-        for(int i = 0; i < pickups.size(); i++) {
-            Piece curr = pickups.get(i);
-            for(int j = i; j > 0; j--) {
-                if(curr.posn.equals(pickups.get(j - 1).posn)) {
-                    curr.posn = curr.getRandomCell(this.board);
-                    j = i;
-                }
+        this.width = width;
+        this.height = height;
+        this.heights = copy ? heights.clone() : heights;
+        this.cells = new Cell[width * height];
+        for(int i = 0; i < this.cells.length; i++) {
+            int x = i % width;
+            int y = i / width;
+            if(this.heights[i] <= 0) {
+                this.heights[i] = 0;
+                this.cells[i] = new OceanCell(0, x, y, null, null, null, null);
+            }
+            else {
+                this.cells[i] = new Cell(this.heights[i], x, y, null, null, null, null, false);
             }
         }
-        this.copter = new Helicopter(this.board);
+        for(Cell c: this.cells) {
+            c.left = this.cellAt(c.x - 1, c.y);
+            c.top = this.cellAt(c.x, c.y - 1);
+            c.right = this.cellAt(c.x + 1, c.y);
+            c.bottom = this.cellAt(c.x, c.y + 1);
+        }
+    }
+    // the cell at the given coordinates; coordinates past an edge of the board
+    // are clamped to it, so a cell on the edge is its own neighbour
+    Cell cellAt(int x, int y) {
+        x = Math.max(0, Math.min(this.width - 1, x));
+        y = Math.max(0, Math.min(this.height - 1, y));
+        return this.cells[y * this.width + x];
+    }
+    int indexOf(Cell c) {
+        return c.y * this.width + c.x;
+    }
+    int size() {
+        return this.cells.length;
     }
 
-    public void onKeyEvent(String ke) {
-        if (ke.equals("m") ||
-                ke.equals("r") ||
-                ke.equals("t")) {
-            this.reset(ke);
+    public Cell get(int index) {
+        if(index < 0 || index >= this.cells.length) {
+            throw new RuntimeException("index out of bounds");
         }
-        else if (ke.equals("p")) {
-            this.pause = !this.pause;
-        }
-        else {
-            players.onKeyEvent(ke);
+        return this.cells[index];
+    }
+    public <R> R foldr(R base, IFunc<Cell, R> func) {
+        for(Cell c: this.cells) {
+            base = func.apply(c, base);
         }
+        return base;
     }
-    public void onTick() {
-        if(this.gameOver == 0 && !this.pause) {
-            this.checkForCollisions();
-            this.adjustForFlooding();
-            this.endIfReady();
+    public Cons<Cell> asCons() {
+        throw new RuntimeException("Cannot make a board into a cons");
+    }
+    public Iterator<Cell> iterator() {
+        return new BoardIterator(this);
+    }
+}
+class BoardIterator implements Iterator<Cell> {
+    Board board;
+    int index;
+    BoardIterator(Board board) {
+        this.board = board;
+        this.index = 0;
+    }
+    public boolean hasNext() {
+        return this.index < this.board.cells.length;
+    }
+    public Cell next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
         }
-        
+        Cell c = this.board.cells[this.index];
+        this.index++;
+        return c;
     }
-
-    public void endIfReady(){
-        if (this.players.posn.isFlooded) {
-            this.gameOver = -1;
+    public void remove() {
+        throw new UnsupportedOperationException("Cannot remove");
+    }
+}
+// Floods a board as the water rises. Only the coastline (the dry cells next
+// to a flooded cell) is looked at on each rise, and flooding spreads through
+// a work queue instead of recursion.
+class FloodEngine {
+    Board board;
+    // the dry cells that touch at least one flooded cell
+    ArrayList<Cell> frontier;
+    // whether the cell at each index is currently in the frontier
+    boolean[] onFrontier;
+    // the cells flooded by the last rise, in the order they went under
+    ArrayList<Cell> newlyFlooded;
+    // how many cells the last rise looked at
+    int visited;
+    FloodEngine(Board board) {
+        this.board = board;
+        this.frontier = new ArrayList<Cell>();
+        this.onFrontier = new boolean[board.size()];
+        this.newlyFlooded = new ArrayList<Cell>();
+        for(Cell c: board) {
+            if(!c.isFlooded && (c.left.isFlooded || c.top.isFlooded
+                    || c.right.isFlooded || c.bottom.isFlooded)) {
+                this.addToFrontier(c);
+            }
         }
-        if ((this.players.posn == this.copter.posn)
-                && this.players.inventory.size() >= 3) {
-            this.gameOver = 1;
-            this.score = (600 - (this.waterHeight * 10 + count)) * this.players.inventory.size();
+    }
+    void addToFrontier(Cell c) {
+        int i = this.board.indexOf(c);
+        if(!this.onFrontier[i]) {
+            this.onFrontier[i] = true;
+            this.frontier.add(c);
         }
     }
-
-    public void checkForCollisions() {
-        for(int i = 0; i < pickups.size(); i++) {
-            Piece curr = pickups.get(i);
-            if(curr.posn.equals(this.players.posn)) {
-                this.players.inventory.add(pickups.remove(i));
-                i--;
+    // floods every dry cell that the given water height reaches through other
+    // flooded cells, and returns how many cells went under
+    int rise(int waterHeight) {
+        this.visited = 0;
+        this.newlyFlooded.clear();
+        ArrayDeque<Cell> work = new ArrayDeque<Cell>();
+        ArrayList<Cell> coast = this.frontier;
+        this.frontier = new ArrayList<Cell>();
+        for(Cell c: coast) {
+            this.visited++;
+            this.onFrontier[this.board.indexOf(c)] = false;
+            if(c.height <= waterHeight) {
+                c.isFlooded = true;
+                this.newlyFlooded.add(c);
+                work.add(c);
             }
+            else {
+                this.addToFrontier(c);
+            }
+        }
+        while(!work.isEmpty()) {
+            Cell c = work.poll();
+            this.spread(c.left, waterHeight, work);
+            this.spread(c.top, waterHeight, work);
+            this.spread(c.right, waterHeight, work);
+            this.spread(c.bottom, waterHeight, work);
         }
+        return this.newlyFlooded.size();
     }
-    public void adjustForFlooding() {
-        count++;
-        if(count != 10) {
+    // looks at a neighbour of a newly flooded cell: it either floods too or
+    // becomes part of the coastline
+    void spread(Cell c, int waterHeight, ArrayDeque<Cell> work) {
+        this.visited++;
+        if(c.isFlooded) {
             return;
         }
+        if(c.height <= waterHeight) {
+            c.isFlooded = true;
+            this.newlyFlooded.add(c);
+            work.add(c);
+        }
         else {
-            this.waterHeight++;
-            count = 0;
-            for(Cell c: this.board) {
-                c.adjustForFlooding(this.waterHeight);
-            }
+            this.addToFrontier(c);
         }
     }
-
-    public IList<Cell> makeOrderedBoard() {
-        ArrayList<ArrayList<Double>> heights = new ArrayList<ArrayList<Double>>();
-        for(int y = 0; y < ForbiddenIslandWorld.ISLAND_SIZE+1; y++) {
-            ArrayList<Double> row = new ArrayList<Double>();
-            for(int x = 0; x < ForbiddenIslandWorld.ISLAND_SIZE+1; x++) {
-                Double height = this.makeOrderedHeight(x, y);
-                row.add(height);
+}
+// The water height at which every cell of a board goes under. The water only
+// ever rises, so a cell floods at the lowest height for which a path of cells
+// at or below that height joins it to the ocean; this is worked out once, in
+// order of increasing height, with one bucket of cells per height.
+class FloodMap {
+    // the flood height of a cell that no ocean can ever reach
+    static final int NEVER = Integer.MAX_VALUE;
+    Board board;
+    // the flood height of the cell at each index
+    int[] floodHeight;
+    // every cell that ever floods, sorted by flood height
+    Cell[] order;
+    // cells flooding at height h are order[levelStart[h]] up to order[levelStart[h + 1]]
+    int[] levelStart;
+    FloodMap(Board board) {
+        this.board = board;
+        int n = board.size();
+        this.floodHeight = new int[n];
+        int maxLevel = 0;
+        for(int i = 0; i < n; i++) {
+            this.floodHeight[i] = NEVER;
+            maxLevel = Math.max(maxLevel, FloodMap.levelOf(board.heights[i]));
+        }
+        // bucket h holds the reached cells whose flood height is h, as a linked
+        // list threaded through next
+        int[] bucket = new int[maxLevel + 1];
+        int[] next = new int[n];
+        Arrays.fill(bucket, -1);
+        for(int i = 0; i < n; i++) {
+            if(board.cells[i].isFlooded) {
+                this.floodHeight[i] = 0;
+                next[i] = bucket[0];
+                bucket[0] = i;
             }
-            heights.add(row);
         }
-        IList<Cell> ret = this.convertToCells(heights);
-        return ret;
-    }
-    public Double makeOrderedHeight(int x, int y) {
-        int center = ForbiddenIslandWorld.ISLAND_SIZE/2;
-        double dist = Math.abs(center - x) + Math.abs(center - y);
-        if(dist > center) {
-            return 0.0;
+        int[] settled = new int[maxLevel + 2];
+        for(int level = 0; level <= maxLevel; level++) {
+            while(bucket[level] != -1) {
+                int i = bucket[level];
+                bucket[level] = next[i];
+                settled[level]++;
+                Cell c = board.cells[i];
+                this.reach(c.left, level, bucket, next);
+                this.reach(c.top, level, bucket, next);
+                this.reach(c.right, level, bucket, next);
+                this.reach(c.bottom, level, bucket, next);
+            }
         }
-        else {
-            return ForbiddenIslandWorld.ISLAND_SIZE/2 - dist;
+        this.levelStart = new int[maxLevel + 2];
+        for(int level = 0; level <= maxLevel; level++) {
+            this.levelStart[level + 1] = this.levelStart[level] + settled[level];
         }
-    }
-
-
-
-
-    public IList<Cell> makeRandomBoard() {
-        ArrayList<ArrayList<Double>> heights = new ArrayList<ArrayList<Double>>();
-        for(int y = 0; y < ForbiddenIslandWorld.ISLAND_SIZE+1; y++) {
-            ArrayList<Double> row = new ArrayList<Double>();
-            for(int x = 0; x < ForbiddenIslandWorld.ISLAND_SIZE+1; x++) {
-                Double height = this.makeRandomHeight(x, y);
-                row.add(height);
+        this.order = new Cell[this.levelStart[maxLevel + 1]];
+        int[] fill = Arrays.copyOf(this.levelStart, maxLevel + 1);
+        for(int i = 0; i < n; i++) {
+            int h = this.floodHeight[i];
+            if(h != NEVER) {
+                this.order[fill[h]] = board.cells[i];
+                fill[h]++;
             }
-            heights.add(row);
         }
-        IList<Cell> ret = this.convertToCells(heights);
-        return ret;
     }
-    public Double makeRandomHeight(int x, int y) {
-        int center = ForbiddenIslandWorld.ISLAND_SIZE/2;
-        double dist = Math.abs(center - x) + Math.abs(center - y);
-        if(dist > center) {
-            return 0.0;
-        }
-        else {
-            return ((double)new Random().nextInt(31) + 1);
+    // queues a neighbour of a cell that floods at the given level. A cell is
+    // first reached from the lowest level it can be, so it is queued only once
+    void reach(Cell a, int level, int[] bucket, int[] next) {
+        int j = this.board.indexOf(a);
+        if(this.floodHeight[j] == NEVER) {
+            int h = Math.max(level, FloodMap.levelOf(this.board.heights[j]));
+            this.floodHeight[j] = h;
+            next[j] = bucket[h];
+            bucket[h] = j;
         }
     }
-
-
-
-
-
-    public IList<Cell> makeAnnoyingBoard() {
-        ArrayList<ArrayList<Double>> heights = this.makeAnnoyingHeight();
-        heights.get(ForbiddenIslandWorld.ISLAND_SIZE/2).set(ForbiddenIslandWorld.ISLAND_SIZE/2, 32.0);
-        heights.get(0).set(ForbiddenIslandWorld.ISLAND_SIZE/2, 1.0);
-        heights.get(ForbiddenIslandWorld.ISLAND_SIZE).set(ForbiddenIslandWorld.ISLAND_SIZE/2, 1.0);
-        heights.get(ForbiddenIslandWorld.ISLAND_SIZE/2).set(0, 1.0);
-        heights.get(ForbiddenIslandWorld.ISLAND_SIZE/2).set(ForbiddenIslandWorld.ISLAND_SIZE, 1.0);
-        this.makeQuadrant(heights, ForbiddenIslandWorld.ISLAND_SIZE/2, ForbiddenIslandWorld.ISLAND_SIZE/2, ForbiddenIslandWorld.ISLAND_SIZE, ForbiddenIslandWorld.ISLAND_SIZE, 4);
-        this.makeQuadrant(heights, 0, ForbiddenIslandWorld.ISLAND_SIZE/2, ForbiddenIslandWorld.ISLAND_SIZE/2, ForbiddenIslandWorld.ISLAND_SIZE, 3);
-        this.makeQuadrant(heights, ForbiddenIslandWorld.ISLAND_SIZE/2, 0, ForbiddenIslandWorld.ISLAND_SIZE, ForbiddenIslandWorld.ISLAND_SIZE/2, 2);
-        this.makeQuadrant(heights, 0, 0, ForbiddenIslandWorld.ISLAND_SIZE/2, ForbiddenIslandWorld.ISLAND_SIZE/2, 1);
-
-        return this.convertToCells(heights);
+    // the lowest whole water height that covers the given cell height
+    static int levelOf(double height) {
+        return Math.max(0, (int)Math.ceil(height));
     }
-    public void makeQuadrant(ArrayList<ArrayList<Double>> heights, int x1, int y1, int x2, int y2, int quadrant) {
-        if(y1 + 1 >= y2 || x1 + 1 >= x2) {
-            return;
+    int floodHeightOf(Cell c) {
+        return this.floodHeight[this.board.indexOf(c)];
+    }
+    // is the given cell under water once the water reaches the given height?
+    boolean isFloodedAt(Cell c, int waterHeight) {
+        return this.floodHeightOf(c) <= waterHeight;
+    }
+    // the cells that go under exactly when the water reaches the given height
+    List<Cell> cellsFloodingAt(int waterHeight) {
+        if(waterHeight < 0 || waterHeight >= this.levelStart.length - 1) {
+            return Collections.emptyList();
         }
-        double tl = heights.get(y1).get(x1);
-        double tr = heights.get(y2).get(x1);
-        double bl = heights.get(y1).get(x2);
-        double br = heights.get(y2).get(x2);
-        double t = (Math.random() - .5)*((x2 - x1) * (y2 - y1) * .1) + (tl + tr)/2;
-        heights.get((y1+y2)/2).set(x1, t);
-        double l = (Math.random() - .5)*((x2 - x1) * (y2 - y1) * .1) + (tl + bl)/2;
-        heights.get(y1).set((x1+x2)/2, l);
-        if(quadrant > 2) {
-            double b = (Math.random() - .5)*((x2 - x1) * (y2 - y1) * .1) + (bl + br)/2;
-            heights.get((y1+y2)/2).set(x2, b);
+        return Arrays.asList(this.order).subList(this.levelStart[waterHeight],
+                this.levelStart[waterHeight + 1]);
+    }
+}
+// A board kept as bits rather than cells, for holding and flooding very many
+// boards at once. Each cell keeps only the lowest whole water height that
+// covers it, which floods it exactly when its real height would. Everything
+// is a bitset, a row of longs per board row with bit x % 64 of word x / 64 for
+// column x: the flooded cells, the cells at or below the water, and the
+// levels, sliced into one bitset per bit so that comparing them with the water
+// takes a few operations per 64 cells. Flooding grows the flooded set 64 cells
+// per operation until it stops changing.
+class PackedBoard {
+    int width, height;
+    // longs per row
+    int words;
+    // the valid bits of the last word of a row
+    long lastMask;
+    // bit b of every cell's FloodMap.levelOf, a bitset for each bit the
+    // highest level needs
+    long[][] planes;
+    long[] flooded;
+    // the cells at or below the water
+    long[] low;
+    int waterHeight;
+    // the row being filled
+    long[] row;
+    // the rows that may flood further: their low cells changed, or a row
+    // next to them flooded more
+    boolean[] dirty;
+    // the flooded cells of a board and its heights, with the water at 0
+    PackedBoard(Board board) {
+        this.width = board.width;
+        this.height = board.height;
+        this.words = (board.width + 63) >>> 6;
+        this.lastMask = -1L >>> (this.words * 64 - board.width);
+        this.flooded = new long[this.words * board.height];
+        this.low = new long[this.words * board.height];
+        this.row = new long[this.words];
+        this.dirty = new boolean[board.height];
+        int top = 0;
+        for(double h: board.heights) {
+            top = Math.max(top, Math.min(Short.MAX_VALUE, FloodMap.levelOf(h)));
         }
-        if(quadrant == 2 || quadrant == 4) {
-            double r = (Math.random() - .5)*((x2 - x1) * (y2 - y1) * .1) + (tr + br)/2;
-            heights.get(y2).set((x1+x2)/2, r); 
+        this.planes = new long[32 - Integer.numberOfLeadingZeros(top)][this.flooded.length];
+        for(int i = 0; i < board.size(); i++) {
+            int level = Math.min(Short.MAX_VALUE, FloodMap.levelOf(board.heights[i]));
+            int bit = this.bitIndex(i % board.width, i / board.width);
+            for(int b = 0; b < this.planes.length; b++) {
+                this.planes[b][bit >>> 6] |= (long) (level >>> b & 1) << bit;
+            }
+            if(board.cells[i].isFlooded) {
+                this.flooded[bit >>> 6] |= 1L << bit;
+            }
         }
-
-        double m = (Math.random() - .5)*((x2 - x1) * (y2 - y1) * .1) + (tl + tr + bl + br)/4;
-        heights.get((y1+y2)/2).set((x1+x2)/2, m);
-        this.makeQuadrant(heights, (x1+x2)/2, (y1+y2)/2, x2, y2, 4);
-        this.makeQuadrant(heights, x1, (y1+y2)/2, (x1+x2)/2, y2, 3);
-        this.makeQuadrant(heights, (x1+x2)/2, y1, x2, (y1+y2)/2, 2);
-
-        this.makeQuadrant(heights, x1, y1, (x1+x2)/2, (y1+y2)/2, 1);
+        this.markLow(0);
     }
-
-    public ArrayList<ArrayList<Double>> makeAnnoyingHeight() {
-        ArrayList<ArrayList<Double>> heights = new ArrayList<ArrayList<Double>>();
-        for (int x = 0; x < ForbiddenIslandWorld.ISLAND_SIZE+1; x++) {
-            ArrayList<Double> row = new ArrayList<Double>();
-            for (int y = 0; y < ForbiddenIslandWorld.ISLAND_SIZE+1; y++) {
-                row.add(0.0);
-            }
-            heights.add(row);
+    int bitIndex(int x, int y) {
+        return (y * this.words << 6) + x;
+    }
+    boolean isFlooded(int x, int y) {
+        return (this.flooded[this.bitIndex(x, y) >>> 6] & 1L << x) != 0;
+    }
+    int floodedCount() {
+        int count = 0;
+        for(long word: this.flooded) {
+            count += Long.bitCount(word);
         }
-        return heights;
+        return count;
     }
-    public IList<Cell> convertToCells(ArrayList<ArrayList<Double>> heights) {
-        ArrayList<ArrayList<Cell>> inter = new ArrayList<ArrayList<Cell>>();
-        for(int i = 0; i < heights.size(); i++) {
-            ArrayList<Double> row = heights.get(i);
-            ArrayList<Cell> curr = new ArrayList<Cell>();
-
-            for(int j = 0; j < row.size(); j++) {
-                Cell temp;
-                if(row.get(j) <= 0) {
-                    temp = new OceanCell(0, j, i, null, null, null, null);
-                    temp.right = temp;
-                    temp.bottom = temp;
-                }
-                else {
-                    temp = new Cell(row.get(j), j, i, null, null, null, null, false);
-                    temp.right = temp;
-                    temp.bottom = temp;
-                }
-
-                if(i == 0) {
-                    temp.setTop(temp);
-                }
-                else {
-                    temp.setTop(inter.get(i - 1).get(j));
-                }
-                if(j == 0) {
-                    temp.setLeft(temp);
+    // bytes held per board, not counting the object headers
+    long bytes() {
+        return 8L * (this.planes.length + 2) * this.flooded.length + 8L * this.row.length;
+    }
+    // puts back flooded cells saved from this board, to flood it again
+    void restore(long[] flooded) {
+        System.arraycopy(flooded, 0, this.flooded, 0, this.flooded.length);
+        Arrays.fill(this.dirty, true);
+    }
+    int levelAt(int x, int y) {
+        int bit = this.bitIndex(x, y);
+        int level = 0;
+        for(int b = 0; b < this.planes.length; b++) {
+            level |= (int) (this.planes[b][bit >>> 6] >>> bit & 1) << b;
+        }
+        return level;
+    }
+    // compares every cell's level with the water a plane at a time, from the
+    // top bit down, keeping the cells still equal to the water so far and the
+    // ones already found below it
+    void markLow(int waterHeight) {
+        // no level is below 0, and every one is below the next power of two
+        boolean none = waterHeight < 0;
+        boolean all = !none && waterHeight >>> this.planes.length != 0;
+        for(int w = 0; w < this.low.length; w++) {
+            long below = all ? -1L : 0;
+            long equal = none || all ? 0 : -1L;
+            for(int b = this.planes.length - 1; b >= 0 && equal != 0; b--) {
+                long plane = this.planes[b][w];
+                if((waterHeight >>> b & 1) != 0) {
+                    below |= equal & ~plane;
+                    equal &= plane;
                 }
                 else {
-
-                    temp.setLeft(curr.get(j - 1));
+                    equal &= ~plane;
                 }
-                curr.add(temp);
             }
-            inter.add(curr);
+            long bits = below | equal;
+            bits = w % this.words == this.words - 1 ? bits & this.lastMask : bits;
+            if(bits != this.low[w]) {
+                this.low[w] = bits;
+                this.dirty[w / this.words] = true;
+            }
         }
-        return this.convertHelper(inter);
     }
-    public IList<Cell> convertHelper(ArrayList<ArrayList<Cell>> board) {
-        IList<Cell> ret = new Empty<Cell>();
-        for(ArrayList<Cell> r: board) {
-            for(Cell c: r) {
-                ret = new Cons<Cell>(c, ret);
+    // raises the water to the given height and floods every cell it reaches
+    // through flooded cells, as Cell.adjustForFlooding would; returns how many
+    // cells went under
+    int rise(int waterHeight) {
+        int before = this.floodedCount();
+        this.waterHeight = waterHeight;
+        this.markLow(waterHeight);
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int y = 0; y < this.height; y++) {
+                changed |= this.fillDirty(y);
+            }
+            for(int y = this.height - 1; y >= 0; y--) {
+                changed |= this.fillDirty(y);
             }
         }
-        return ret;
+        return this.floodedCount() - before;
     }
-    public WorldImage makeImage() {
-        if(this.pause) {
-            WorldImage image = new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 - 30), "PAUSE", 50, 0, new Green());
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4), "Press m, t, or r to play, press p to pause.", 25, 0, new Green()));
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 + 30), "Collect three pieces and return to the.", 25, 0, new Green()));
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 + 60), "helicopter to win. Watch out for floods!", 25, 0, new Green()));
-            return image;
-            
+    // fills the row if it is dirty, and dirties the rows next to it if it
+    // flooded any more
+    boolean fillDirty(int y) {
+        if(!this.dirty[y]) {
+            return false;
         }
-        if (this.gameOver == 0) {
-            WorldImage image = this.players.renderPlayer();
-
-            for(Cell c: this.board) {
-                image = new OverlayImages(image, c.renderCell(this.waterHeight));
+        this.dirty[y] = false;
+        if(!this.fillRow(y)) {
+            return false;
+        }
+        if(y > 0) {
+            this.dirty[y - 1] = true;
+        }
+        if(y < this.height - 1) {
+            this.dirty[y + 1] = true;
+        }
+        return true;
+    }
+    // floods the low cells of a row next to a flooded cell above or below,
+    // then every run of low cells in the row that holds a flooded one, and
+    // reports whether anything went under
+    boolean fillRow(int y) {
+        int start = y * this.words;
+        long carry = 0;
+        for(int w = 0; w < this.words; w++) {
+            long seed = this.flooded[start + w];
+            if(y > 0) {
+                seed |= this.flooded[start - this.words + w];
             }
-            for(Piece p: this.pickups) {
-                image = new OverlayImages(image, p.renderPiece());
+            if(y < this.height - 1) {
+                seed |= this.flooded[start + this.words + w];
             }
-            image = image.overlayImages(copter.renderPiece());
-            image = image.overlayImages(this.players.renderPlayer());
-            return image;
+            long low = this.low[start + w];
+            long filled = PackedBoard.fillUp(low, (seed | carry) & low) | this.flooded[start + w];
+            carry = filled >>> 63;
+            this.row[w] = filled;
         }
-        else if (this.gameOver == 1) {
-            WorldImage image = new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 - 30), "YOU WIN", 50, 0, new Blue());
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4), "Score: " + this.score, 25, 0, new Blue()));
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 + 30), "Press m, t, or r to play again", 25, 0, new Blue()));
-            return image;
-        }
-        else {
-            WorldImage image = new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4), "YOU LOSE", 50, 0, new Red());
-            image = image.overlayImages(new TextImage(new Posn(ForbiddenIslandWorld.ISLAND_SIZE * 4,
-                    ForbiddenIslandWorld.ISLAND_SIZE * 4 + 50), "Press m, t, or r to play again", 25, 0, new Red()));
-            return image;
+        carry = 0;
+        boolean changed = false;
+        for(int w = this.words - 1; w >= 0; w--) {
+            long low = Long.reverse(this.low[start + w]);
+            long seed = (Long.reverse(this.row[w]) | carry) & low;
+            long filled = Long.reverse(PackedBoard.fillUp(low, seed)) | this.row[w];
+            carry = filled & 1;
+            if(filled != this.flooded[start + w]) {
+                this.flooded[start + w] = filled;
+                changed = true;
+            }
         }
-        
+        return changed;
     }
-}
-class Piece {
-    Cell posn;
-
-    Piece(IList<Cell> board) {
-        this.posn = this.getRandomCell(board);
+    // the bits of each run of ones in low from a seed bit up to the run's top,
+    // found with one add: the carry from a seed ripples up through its run
+    static long fillUp(long low, long seed) {
+        return (((low + seed) ^ low) & low) | seed;
     }
-
-    Cell getRandomCell(IList<Cell> l) {
-        Cell curr = l.get(new Random().nextInt((int)Math.pow(ForbiddenIslandWorld.ISLAND_SIZE + 1, 2) - 1));
-        if (curr.isFlooded) {
-            return this.getRandomCell(l);
-        }
-        else {
-            return curr;
+}
+// The cells a player can walk, one a tick, to pick up the pieces they still
+// need and reach the helicopter without drowning
+class Route {
+    // board indices; cells[0] is where the player stood when it was planned
+    int[] cells;
+    // the RouteFinder clock at cells[0]
+    int start;
+    // how many pieces are picked up along the way
+    int pieces;
+    // the cells the route passes, for telling whether a flood cuts it
+    BitSet passes;
+    Route(int[] cells, int start, int pieces) {
+        this.cells = cells;
+        this.start = start;
+        this.pieces = pieces;
+        this.passes = new BitSet();
+        for(int cell: cells) {
+            this.passes.set(cell);
         }
     }
-    WorldImage renderPiece() {
-        return new DiskImage(new Posn(posn.x*8 + 4, posn.y*8 + 4), 4, Color.MAGENTA);
+    int steps() {
+        return this.cells.length - 1;
+    }
+    // the clock when the player reaches the helicopter
+    int arrival() {
+        return this.start + this.steps();
     }
 }
-class Helicopter extends Piece {
-    Helicopter(IList<Cell> board) {
-        super(board);
+// When each cell can first be reached from one cell at one time, walking one
+// cell a tick and only onto cells still dry when they are reached
+class RouteField {
+    int start;
+    int clock;
+    // the clock a cell is first reached at, or -1 if it never is
+    int[] arrival;
+    // the cell each cell is first reached from
+    int[] parent;
+    RouteField(int start, int clock, int size) {
+        this.start = start;
+        this.clock = clock;
+        this.arrival = new int[size];
+        this.parent = new int[size];
+        Arrays.fill(this.arrival, -1);
+    }
+}
+// Finds the fastest safe route for a player to pick up the pieces they need
+// and reach the helicopter. Time is counted on a clock of ticks of the water,
+// at which a cell is under water once the water height, clock / 10, reaches
+// its FloodMap flood height; so whether a cell can be walked onto at a time is
+// known in advance, and since waiting only lets more of the island flood, the
+// earliest a cell can be reached is the best. A breadth-first search from a
+// cell at a time therefore gives the best way to every cell; those searches
+// are cached, and so is each player's route, which stays good while they
+// follow it. Only orders of the NEAREST_PIECES pieces closest to the player
+// are tried, so with more pieces than that on the board the route is the
+// fastest among those, not necessarily the fastest of all.
+//
+// Since the flooding is known in advance, the cells flipped by a rise of the
+// water do not invalidate anything: a cached search or route already counts
+// on them going under when they do. The caches are keyed by the clock
+// instead; a search from a clock now past is dropped, and a route is planned
+// again when the player is off it or the pieces left have changed. The one
+// exception is a board that floods otherwise than its FloodMap says, as a
+// restored or edited game may, where flooded() drops the routes the flipped
+// cells cut.
+class RouteFinder {
+    // ticks between rises of the water, as in adjustForFlooding
+    static final int TICKS_PER_LEVEL = 10;
+    // pieces needed to leave on the helicopter, as in endIfReady
+    static final int PIECES_NEEDED = 3;
+    // how many of the nearest pieces are tried in every order; pieces further
+    // away are never considered
+    static final int NEAREST_PIECES = 6;
+    static final int CACHED_FIELDS = 64;
+    ForbiddenIslandWorld world;
+    Board board;
+    FloodMap floodMap;
+    // searches by their start cell and clock, least recently used first
+    LinkedHashMap<Long, RouteField> fields;
+    // the route of each player, by id, and how many pieces were left then
+    HashMap<Integer, Route> routes;
+    HashMap<Integer, Integer> piecesLeft;
+    // the cell each player found no route from; with the water only rising
+    // and pieces only going, there is none from it later either
+    HashMap<Integer, Integer> stranded;
+    long hits, misses, searches;
+    // the best route found by the search in progress
+    int[] bestStops;
+    int bestArrival;
+    int bestPieces;
+    RouteFinder(ForbiddenIslandWorld world) {
+        this.world = world;
+        this.fields = new LinkedHashMap<Long, RouteField>(16, 0.75f, true);
+        this.routes = new HashMap<Integer, Route>();
+        this.piecesLeft = new HashMap<Integer, Integer>();
+        this.stranded = new HashMap<Integer, Integer>();
+    }
+    static int clockOf(ForbiddenIslandWorld w) {
+        return w.waterHeight * RouteFinder.TICKS_PER_LEVEL + w.count;
     }
-    Cell getRandomCell(IList<Cell> l) {
-        Cell curr = l.get(0);
-        for(Cell c: l) {
-            if(c.height > curr.height) {
-                curr = c;
+    // can a cell be stood on at the given clock?
+    boolean isSafe(int cell, int clock) {
+        return this.floodMap.floodHeight[cell] > clock / RouteFinder.TICKS_PER_LEVEL;
+    }
+    // forgets everything worked out for an earlier board
+    void follow() {
+        if(this.board != this.world.board || this.floodMap != this.world.floodMap) {
+            this.board = this.world.board;
+            this.floodMap = this.world.floodMap;
+            this.fields.clear();
+            this.routes.clear();
+            this.piecesLeft.clear();
+            this.stranded.clear();
+        }
+    }
+    // the player's route from where they stand now, or null if they can no
+    // longer get away
+    Route route(Player p) {
+        this.follow();
+        int clock = RouteFinder.clockOf(this.world);
+        int at = this.board.indexOf(p.posn);
+        Route r = this.routes.get(p.id);
+        if(this.piecesLeft.containsKey(p.id) && this.piecesLeft.get(p.id) == this.world.pickups.size()) {
+            if(r == null && this.stranded.get(p.id) == at) {
+                this.hits++;
+                return null;
+            }
+            int step = r == null ? -1 : clock - r.start;
+            if(step >= 0 && step <= r.steps() && r.cells[step] == at) {
+                this.hits++;
+                return r;
             }
         }
-        return curr;
+        this.misses++;
+        r = this.plan(p, clock);
+        this.routes.put(p.id, r);
+        this.piecesLeft.put(p.id, this.world.pickups.size());
+        this.stranded.put(p.id, r == null ? at : -1);
+        return r;
     }
-    WorldImage renderPiece() {
-        return new FromFileImage(new Posn(posn.x * 8 + 4, posn.y * 8 + 4), "helicopter.png");
+    // the player's route if the one last planned still holds where they stand
+    // now, or null; never plans one
+    Route planned(Player p) {
+        if(this.board != this.world.board || this.floodMap != this.world.floodMap) {
+            return null;
+        }
+        Route r = this.routes.get(p.id);
+        Integer left = this.piecesLeft.get(p.id);
+        if(r == null || left == null || left != this.world.pickups.size()) {
+            return null;
+        }
+        int step = RouteFinder.clockOf(this.world) - r.start;
+        if(step >= 0 && step <= r.steps() && r.cells[step] == this.board.indexOf(p.posn)) {
+            return r;
+        }
+        return null;
     }
-}
-class Player {
-    Cell posn;
-    ArrayList<Piece> inventory;
-    Player(IList<Cell> board) {
-        this.posn = this.getRandomCell(board);
-        this.inventory = new ArrayList<Piece>();
+    // the key that takes the player along their route, or null if there is
+    // nowhere to go
+    String nextKey(Player p) {
+        Route r = this.route(p);
+        if(r == null) {
+            return null;
+        }
+        int step = RouteFinder.clockOf(this.world) - r.start;
+        if(step >= r.steps()) {
+            return null;
+        }
+        int from = r.cells[step];
+        int to = r.cells[step + 1];
+        int dx = to % this.board.width - from % this.board.width;
+        int dy = to / this.board.width - from / this.board.width;
+        return dx > 0 ? "right" : dx < 0 ? "left" : dy > 0 ? "down" : "up";
     }
-
-    Cell getRandomCell(IList<Cell> l) {
-        Cell curr = l.get(new Random().nextInt((int)Math.pow(ForbiddenIslandWorld.ISLAND_SIZE + 1, 2) - 1));
-        if (curr.isFlooded) {
-            return this.getRandomCell(l);
+    // called with the cells that just went under, once the clock has moved
+    // on: drops the searches that started before now, which are never asked
+    // for again, and the routes with any of the cells still ahead. While the
+    // board floods as its FloodMap says no route is ever cut, so the second
+    // is only a guard for a board whose flooding has been changed.
+    void flooded(List<Cell> cells) {
+        if(this.board != this.world.board) {
+            return;
         }
-        else {
-            return curr;
+        int clock = RouteFinder.clockOf(this.world);
+        Iterator<Route> routes = this.routes.values().iterator();
+        while(routes.hasNext()) {
+            Route r = routes.next();
+            if(r != null && this.isCut(r, cells, clock)) {
+                routes.remove();
+            }
         }
+        this.fields.values().removeIf(f -> f.clock < clock);
     }
-    public WorldImage renderPlayer() {
-        return new DiskImage(new Posn(posn.x*8 + 4, posn.y*8 + 4), 8, new Yellow());
+    boolean isCut(Route r, List<Cell> cells, int clock) {
+        for(Cell c: cells) {
+            int cell = this.board.indexOf(c);
+            if(r.passes.get(cell)) {
+                for(int i = Math.max(0, clock - r.start); i < r.cells.length; i++) {
+                    if(r.cells[i] == cell) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
     }
-    void onKeyEvent(String ke) {
-        if(ke.equals("up")) {
-            if(!this.posn.top.isFlooded) {
-                this.posn = this.posn.top;
+    RouteField field(int start, int clock) {
+        long key = (long) clock << 32 | start;
+        RouteField f = this.fields.get(key);
+        if(f == null) {
+            f = this.search(start, clock);
+            this.fields.put(key, f);
+            if(this.fields.size() > RouteFinder.CACHED_FIELDS) {
+                Iterator<RouteField> eldest = this.fields.values().iterator();
+                eldest.next();
+                eldest.remove();
             }
         }
-        if(ke.equals("down")) {
-            if(!this.posn.bottom.isFlooded) {
-                this.posn = this.posn.bottom;
+        return f;
+    }
+    RouteField search(int start, int clock) {
+        this.searches++;
+        RouteField f = new RouteField(start, clock, this.board.size());
+        int[] queue = new int[this.board.size()];
+        int head = 0;
+        int tail = 0;
+        f.arrival[start] = clock;
+        f.parent[start] = start;
+        queue[tail++] = start;
+        while(head < tail) {
+            int i = queue[head++];
+            Cell c = this.board.cells[i];
+            int t = f.arrival[i] + 1;
+            tail = this.reach(f, i, c.left, t, queue, tail);
+            tail = this.reach(f, i, c.top, t, queue, tail);
+            tail = this.reach(f, i, c.right, t, queue, tail);
+            tail = this.reach(f, i, c.bottom, t, queue, tail);
+        }
+        return f;
+    }
+    int reach(RouteField f, int from, Cell to, int clock, int[] queue, int tail) {
+        int j = this.board.indexOf(to);
+        if(f.arrival[j] == -1 && this.isSafe(j, clock)) {
+            f.arrival[j] = clock;
+            f.parent[j] = from;
+            queue[tail++] = j;
+        }
+        return tail;
+    }
+    // tries the nearest pieces in every order, dropping any order that is
+    // already slower than the best, and then walks the best one
+    Route plan(Player p, int clock) {
+        int start = this.board.indexOf(p.posn);
+        int needed = Math.max(0, RouteFinder.PIECES_NEEDED - p.inventory.size());
+        RouteField first = this.field(start, clock);
+        // the cells pieces lie on, nearest first, and how many on each
+        ArrayList<Integer> cells = new ArrayList<Integer>();
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        int available = 0;
+        for(Piece piece: this.world.pickups) {
+            int cell = this.board.indexOf(piece.posn);
+            if(first.arrival[cell] >= 0 && counts.merge(cell, 1, Integer::sum) == 1) {
+                cells.add(cell);
             }
         }
-        if(ke.equals("left")) {
-            if(!this.posn.left.isFlooded) {
-                this.posn = this.posn.left;
+        cells.sort(Comparator.comparingInt(cell -> first.arrival[cell]));
+        while(cells.size() > RouteFinder.NEAREST_PIECES) {
+            cells.remove(cells.size() - 1);
+        }
+        for(int cell: cells) {
+            available += counts.get(cell);
+        }
+        if(available < needed) {
+            return null;
+        }
+        this.bestStops = null;
+        this.bestArrival = Integer.MAX_VALUE;
+        this.visit(start, clock, needed, 0, cells, counts, new int[cells.size() + 1], 0, 0);
+        if(this.bestStops == null) {
+            return null;
+        }
+        return this.walk(start, clock, this.bestStops);
+    }
+    // goes on from a stop to each piece not yet taken, or to the helicopter
+    // once enough are
+    void visit(int at, int clock, int needed, int taken, ArrayList<Integer> cells,
+            HashMap<Integer, Integer> counts, int[] stops, int depth, int pieces) {
+        RouteField f = this.field(at, clock);
+        if(needed <= 0) {
+            int copter = this.board.indexOf(this.world.copter.posn);
+            int arrival = f.arrival[copter];
+            if(arrival >= 0 && arrival < this.bestArrival) {
+                stops[depth] = copter;
+                this.bestArrival = arrival;
+                this.bestStops = Arrays.copyOf(stops, depth + 1);
+                this.bestPieces = pieces;
             }
+            return;
         }
-        if(ke.equals("right")) {
-            if(!this.posn.right.isFlooded) {
-                this.posn = this.posn.right;
+        for(int k = 0; k < cells.size(); k++) {
+            int cell = cells.get(k);
+            int arrival = f.arrival[cell];
+            if((taken & 1 << k) != 0 || arrival < 0 || arrival >= this.bestArrival) {
+                continue;
             }
+            stops[depth] = cell;
+            int count = counts.get(cell);
+            this.visit(cell, arrival, needed - count, taken | 1 << k, cells, counts, stops, depth + 1,
+                    pieces + count);
         }
     }
+    // the cells from the start through every stop in turn
+    Route walk(int start, int clock, int[] stops) {
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        path.add(start);
+        int at = start;
+        int t = clock;
+        for(int stop: stops) {
+            RouteField f = this.field(at, t);
+            int mark = path.size();
+            for(int cell = stop; cell != at; cell = f.parent[cell]) {
+                path.add(cell);
+            }
+            Collections.reverse(path.subList(mark, path.size()));
+            at = stop;
+            t = f.arrival[stop];
+        }
+        int[] cells = new int[path.size()];
+        for(int i = 0; i < cells.length; i++) {
+            cells[i] = path.get(i);
+        }
+        return new Route(cells, clock, this.bestPieces);
+    }
+}
+// An off-screen picture of a board's terrain, one pixel per cell, that is kept
+// from frame to frame and only repainted where a cell's colour can change
+class TerrainRaster {
+    Board board;
+    BufferedImage image;
+    // the image's own pixels, written directly since setRGB allocates per call
+    int[] pixels;
+    // the cells of the board from lowest to highest
+    Cell[] byHeight;
+    // the water height the raster was last painted for, or -1 if never painted
+    int waterHeight;
+    // how many cells the last update repainted
+    int repainted;
+    // decides which cells are flooded when set, rather than the cells
+    // themselves, so that the raster can be painted while they change
+    FloodMap floodMap;
+    TerrainRaster(Board board, FloodMap floodMap) {
+        this(board);
+        this.floodMap = floodMap;
+    }
+    TerrainRaster(Board board) {
+        this.board = board;
+        this.image = new BufferedImage(board.width, board.height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt)this.image.getRaster().getDataBuffer()).getData();
+        this.byHeight = Arrays.copyOf(board.cells, board.size());
+        Arrays.sort(this.byHeight, new HeightOrder());
+        this.waterHeight = -1;
+    }
+    // brings the raster up to date with the given water height. Cells only
+    // flood when the water rises, and a dry cell's colour stops depending on
+    // the water once it is more than 32 feet above it, so only the cells below
+    // that line need repainting
+    void update(int waterHeight) {
+        this.repainted = 0;
+        if(waterHeight == this.waterHeight) {
+            return;
+        }
+        if(waterHeight < this.waterHeight || this.waterHeight < 0) {
+            for(Cell c: this.byHeight) {
+                this.paint(c, waterHeight);
+            }
+        }
+        else {
+            for(Cell c: this.byHeight) {
+                if(c.height >= waterHeight + 32) {
+                    break;
+                }
+                this.paint(c, waterHeight);
+            }
+        }
+        this.waterHeight = waterHeight;
+    }
+    void paint(Cell c, int waterHeight) {
+        Color color = this.floodMap == null ? c.colorAt(waterHeight)
+                : CellPalette.colorOf(this.floodMap.isFloodedAt(c, waterHeight), c.height, waterHeight);
+        this.pixels[c.y * this.board.width + c.x] = color.getRGB();
+        this.repainted++;
+    }
+    // the terrain as an image with the given number of pixels per cell
+    WorldImage render(int cellSize) {
+        return new RasterImage(new Posn(this.board.width * cellSize / 2, this.board.height * cellSize / 2),
+                this.image, cellSize);
+    }
+}
+// Orders cells from lowest to highest
+class HeightOrder implements Comparator<Cell> {
+    public int compare(Cell c1, Cell c2) {
+        return Double.compare(c1.height, c2.height);
+    }
+}
+// A bitmap drawn scaled up by a whole number of pixels per source pixel,
+// centred on its pinhole
+class RasterImage extends WorldImage {
+    BufferedImage image;
+    int scale;
+    RasterImage(Posn pinhole, BufferedImage image, int scale) {
+        super(pinhole, Color.BLACK);
+        this.image = image;
+        this.scale = scale;
+    }
+    public void draw(Graphics2D g) {
+        g.drawImage(this.image, this.pinhole.x - this.getWidth() / 2, this.pinhole.y - this.getHeight() / 2,
+                this.getWidth(), this.getHeight(), null);
+    }
+    public WorldImage getMovedImage(int dx, int dy) {
+        return new RasterImage(new Posn(this.pinhole.x + dx, this.pinhole.y + dy), this.image, this.scale);
+    }
+    public WorldImage getMovedTo(Posn p) {
+        return new RasterImage(p, this.image, this.scale);
+    }
+    public int getWidth() {
+        return this.image.getWidth() * this.scale;
+    }
+    public int getHeight() {
+        return this.image.getHeight() * this.scale;
+    }
+    public String toIndentedString(String indent) {
+        return classNameString(indent, "RasterImage") + pinholeString(indent, this.pinhole)
+                + "\n" + indent + "this.scale = " + this.scale + ")";
+    }
+}
+// A region of the sprite atlas
+class Sprite {
+    int x;
+    int y;
+    int width;
+    int height;
+    Sprite(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+}
+// A sprite of the atlas drawn at its natural size, centred on its pinhole
+class SpriteImage extends WorldImage {
+    Sprite sprite;
+    SpriteImage(Posn pinhole, Sprite sprite) {
+        super(pinhole, Color.BLACK);
+        this.sprite = sprite;
+    }
+    public void draw(Graphics2D g) {
+        Sprite s = this.sprite;
+        int left = this.pinhole.x - s.width / 2;
+        int top = this.pinhole.y - s.height / 2;
+        g.drawImage(Assets.ATLAS, left, top, left + s.width, top + s.height,
+                s.x, s.y, s.x + s.width, s.y + s.height, null);
+    }
+    public WorldImage getMovedImage(int dx, int dy) {
+        return new SpriteImage(new Posn(this.pinhole.x + dx, this.pinhole.y + dy), this.sprite);
+    }
+    public WorldImage getMovedTo(Posn p) {
+        return new SpriteImage(p, this.sprite);
+    }
+    public int getWidth() {
+        return this.sprite.width;
+    }
+    public int getHeight() {
+        return this.sprite.height;
+    }
+    public String toIndentedString(String indent) {
+        return classNameString(indent, "SpriteImage") + pinholeString(indent, this.pinhole)
+                + "\n" + indent + "this.sprite = " + this.sprite.x + ", " + this.sprite.y + ")";
+    }
+}
+// Everything drawn that never changes, made once. The sprites are read or
+// drawn when the class is loaded and packed side by side into one atlas, so
+// drawing a piece neither touches the filesystem nor builds a new shape; the
+// pause and end screens are composed the first time they are shown and then
+// handed out again.
+class Assets {
+    static final String HELICOPTER_FILE = "helicopter.png";
+    static final BufferedImage ATLAS;
+    static final Sprite HELICOPTER;
+    static final Sprite PIECE;
+    // a dot on each cell of a route
+    static final Sprite HINT;
+    // by player id, modulo the number of player colours
+    static final Sprite[] PLAYERS = new Sprite[Player.COLORS.length];
+    // composed screens, by Assets.screenKey
+    static final ConcurrentHashMap<Long, WorldImage> screens = new ConcurrentHashMap<Long, WorldImage>();
+    static {
+        BufferedImage copter;
+        try {
+            copter = ImageIO.read(new File(Assets.HELICOPTER_FILE));
+        }
+        catch(IOException e) {
+            copter = null;
+        }
+        if(copter == null) {
+            // like javalib, a missing picture draws as nothing
+            copter = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+        }
+        int width = copter.getWidth() + 8 + 4 + 16 * PLAYERS.length;
+        int height = Math.max(copter.getHeight(), 16);
+        ATLAS = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = ATLAS.createGraphics();
+        g.drawImage(copter, 0, 0, null);
+        HELICOPTER = new Sprite(0, 0, copter.getWidth(), copter.getHeight());
+        int x = copter.getWidth();
+        g.setColor(Color.MAGENTA);
+        g.fillOval(x, 0, 8, 8);
+        PIECE = new Sprite(x, 0, 8, 8);
+        x += 8;
+        g.setColor(Color.WHITE);
+        g.fillOval(x, 0, 4, 4);
+        HINT = new Sprite(x, 0, 4, 4);
+        x += 4;
+        for(int i = 0; i < PLAYERS.length; i++) {
+            g.setColor(Player.COLORS[i]);
+            g.fillOval(x, 0, 16, 16);
+            PLAYERS[i] = new Sprite(x, 0, 16, 16);
+            x += 16;
+        }
+        g.dispose();
+    }
+    // the sprite centred on the given cell of the board
+    static WorldImage at(Sprite sprite, Cell c) {
+        return new SpriteImage(new Posn(c.x * 8 + 4, c.y * 8 + 4), sprite);
+    }
+    static long screenKey(int islandSize, int gameOver) {
+        return ((long) islandSize << 32) | (gameOver + 1);
+    }
+    static WorldImage pauseScreen(int islandSize) {
+        return Assets.screens.computeIfAbsent(Assets.screenKey(islandSize, 0),
+                k -> ForbiddenIslandWorld.composePauseScreen(islandSize));
+    }
+    // only the text that never changes is kept; a won game's score is drawn
+    // over it each time, so that there is one screen kept per size however
+    // many scores are shown
+    static WorldImage endScreen(int islandSize, int gameOver, int score) {
+        WorldImage screen = Assets.screens.computeIfAbsent(Assets.screenKey(islandSize, gameOver),
+                k -> ForbiddenIslandWorld.composeEndScreen(islandSize, gameOver));
+        if(gameOver == 1) {
+            return screen.overlayImages(ForbiddenIslandWorld.composeScore(islandSize, score));
+        }
+        return screen;
+    }
+}
+// The random streams of a game, all split from one seed so that a seed always
+// gives the same boards and spawns, bit for bit. Every board gets its own
+// streams, and each part of the game draws from its own one, so drawing more
+// terrain never moves where the pickups land.
+class GameRandom {
+    long seed;
+    // hands out the streams of each board in turn
+    SplittableRandom boards;
+    // how many boards have been started from this seed
+    int generation;
+    // the streams of the current board
+    SplittableRandom terrain, pickups, spawn;
+    GameRandom(long seed) {
+        this.seed = seed;
+        this.boards = new SplittableRandom(seed);
+        this.generation = 0;
+    }
+    // moves on to fresh streams for the next board
+    void nextBoard() {
+        SplittableRandom board = this.boards.split();
+        this.terrain = board.split();
+        this.pickups = board.split();
+        this.spawn = board.split();
+        this.generation++;
+    }
+    // the streams of the given seed as they were when its generation-th board
+    // was started
+    static GameRandom atBoard(long seed, int generation) {
+        GameRandom random = new GameRandom(seed);
+        for(int i = 0; i < generation; i++) {
+            random.nextBoard();
+        }
+        return random;
+    }
+}
+// Builds the heights of the annoying island: the midpoints of every square
+// are raised from its corners, one size of square at a time, so that each
+// level's squares only read points earlier levels have finished and can be
+// filled side by side.
+class DiamondSquare {
+    // rows of squares filled by one task
+    static final int ROWS_PER_TASK = 16;
+    // the side of the island, a power of two
+    int size;
+    // points along a side, one more than the size
+    int width;
+    // row-major, like the heights of a Board
+    double[] heights;
+    DiamondSquare(int size) {
+        if(size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("island size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.width = size + 1;
+        this.heights = new double[this.width * this.width];
+    }
+    double heightAt(int x, int y) {
+        return this.heights[y * this.width + x];
+    }
+    void setHeight(int x, int y, double h) {
+        this.heights[y * this.width + x] = h;
+    }
+    // raises a peak of 32 in the middle and fills in the rest; each band of
+    // rows draws from its own stream, split off in order, so the result only
+    // depends on the given stream and not on how the bands were scheduled
+    void generate(SplittableRandom random) {
+        int half = this.size / 2;
+        this.setHeight(half, half, 32);
+        this.setHeight(half, 0, 1);
+        this.setHeight(half, this.size, 1);
+        this.setHeight(0, half, 1);
+        this.setHeight(this.size, half, 1);
+        for(int side = half; side >= 2; side /= 2) {
+            int rows = this.size / side;
+            int bands = (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+            SplittableRandom[] streams = new SplittableRandom[bands];
+            for(int i = 0; i < bands; i++) {
+                streams[i] = random.split();
+            }
+            SquareBands task = new SquareBands(this, side, streams, 0, bands);
+            if(bands == 1) {
+                task.compute();
+            }
+            else {
+                ForkJoinPool.commonPool().invoke(task);
+            }
+        }
+    }
+    // fills every square of the given side in rows [firstRow, lastRow)
+    void fillRows(int side, int firstRow, int lastRow, SplittableRandom random) {
+        int squares = this.size / side;
+        for(int row = firstRow; row < lastRow; row++) {
+            for(int col = 0; col < squares; col++) {
+                this.fillSquare(col, row, side, random);
+            }
+        }
+    }
+    // fills the midpoints of the square in the given column and row. Which
+    // quadrant of its parent a square is decides whether it also does its
+    // right and bottom edges; an edge shared with a square that does those is
+    // left to that square
+    void fillSquare(int col, int row, int side, SplittableRandom random) {
+        int x1 = col * side;
+        int y1 = row * side;
+        int x2 = x1 + side;
+        int y2 = y1 + side;
+        int mx = x1 + side / 2;
+        int my = y1 + side / 2;
+        boolean right = (col & 1) == 1;
+        boolean lower = (row & 1) == 1;
+        double spread = side * side * .1;
+        double tl = this.heightAt(x1, y1);
+        double tr = this.heightAt(x1, y2);
+        double bl = this.heightAt(x2, y1);
+        double br = this.heightAt(x2, y2);
+        if(col == 0 || !lower) {
+            this.setHeight(x1, my, (random.nextDouble() - .5) * spread + (tl + tr) / 2);
+        }
+        if(row == 0 || !right) {
+            this.setHeight(mx, y1, (random.nextDouble() - .5) * spread + (tl + bl) / 2);
+        }
+        if(lower) {
+            this.setHeight(x2, my, (random.nextDouble() - .5) * spread + (bl + br) / 2);
+        }
+        if(right) {
+            this.setHeight(mx, y2, (random.nextDouble() - .5) * spread + (tr + br) / 2);
+        }
+        this.setHeight(mx, my, (random.nextDouble() - .5) * spread + (tl + tr + bl + br) / 4);
+    }
+}
+// Fills a range of bands of one level of a DiamondSquare, halving the range
+// until a single band is left
+class SquareBands extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    DiamondSquare terrain;
+    int side;
+    SplittableRandom[] streams;
+    int firstBand, lastBand;
+    SquareBands(DiamondSquare terrain, int side, SplittableRandom[] streams, int firstBand, int lastBand) {
+        this.terrain = terrain;
+        this.side = side;
+        this.streams = streams;
+        this.firstBand = firstBand;
+        this.lastBand = lastBand;
+    }
+    protected void compute() {
+        if(this.lastBand - this.firstBand > 1) {
+            int mid = (this.firstBand + this.lastBand) / 2;
+            invokeAll(new SquareBands(this.terrain, this.side, this.streams, this.firstBand, mid),
+                    new SquareBands(this.terrain, this.side, this.streams, mid, this.lastBand));
+            return;
+        }
+        int rows = this.terrain.size / this.side;
+        for(int band = this.firstBand; band < this.lastBand; band++) {
+            int first = band * DiamondSquare.ROWS_PER_TASK;
+            this.terrain.fillRows(this.side, first,
+                    Math.min(rows, first + DiamondSquare.ROWS_PER_TASK), this.streams[band]);
+        }
+    }
+}
+// A heightmap in a headerless raw file: int16 or float32 heights, little- or
+// big-endian, row by row. A sidecar of the same name plus ".hdr" describes it
+// with width=, height=, format= (int16le, int16be, float32le or float32be) and
+// an optional scale= that heights are multiplied by. The file is mapped rather
+// than read, so even a large tile opens at once and its heights stay off the
+// heap until a board is sampled from them.
+class HeightmapFile {
+    static final String SIDECAR = ".hdr";
+    int width, height;
+    boolean float32;
+    double scale;
+    ByteBuffer data;
+    HeightmapFile(Path raw) throws IOException {
+        Properties sidecar = new Properties();
+        try(Reader in = Files.newBufferedReader(
+                raw.resolveSibling(raw.getFileName() + SIDECAR))) {
+            sidecar.load(in);
+        }
+        this.width = Integer.parseInt(sidecar.getProperty("width", "0").trim());
+        this.height = Integer.parseInt(sidecar.getProperty("height", "0").trim());
+        this.scale = Double.parseDouble(sidecar.getProperty("scale", "1").trim());
+        String format = sidecar.getProperty("format", "int16le").trim();
+        ByteOrder order;
+        if(format.equals("int16le") || format.equals("int16be")) {
+            this.float32 = false;
+        }
+        else if(format.equals("float32le") || format.equals("float32be")) {
+            this.float32 = true;
+        }
+        else {
+            throw new IllegalArgumentException("unknown heightmap format " + format);
+        }
+        order = format.endsWith("le") ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        if(this.width <= 0 || this.height <= 0) {
+            throw new IllegalArgumentException("heightmap needs a width and a height");
+        }
+        long bytes = (long) this.width * this.height * (this.float32 ? 4 : 2);
+        if(bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("heightmap is too large to map at once");
+        }
+        try(FileChannel in = FileChannel.open(raw, StandardOpenOption.READ)) {
+            if(in.size() < bytes) {
+                throw new IllegalArgumentException("heightmap has " + in.size()
+                        + " bytes, expected " + bytes);
+            }
+            this.data = in.map(FileChannel.MapMode.READ_ONLY, 0, bytes).order(order);
+        }
+    }
+    double heightAt(int x, int y) {
+        int i = y * this.width + x;
+        if(this.float32) {
+            return this.data.getFloat(i * 4) * this.scale;
+        }
+        return this.data.getShort(i * 2) * this.scale;
+    }
+    // the whole heightmap as a board
+    Board toBoard() {
+        double[] heights = new double[this.width * this.height];
+        for(int y = 0; y < this.height; y++) {
+            for(int x = 0; x < this.width; x++) {
+                heights[y * this.width + x] = this.heightAt(x, y);
+            }
+        }
+        return new Board(this.width, this.height, heights, false);
+    }
+    // a board of (size + 1) x (size + 1) cells sampled evenly across the
+    // heightmap, nearest height to each cell
+    Board toBoard(int size) {
+        int side = size + 1;
+        double[] heights = new double[side * side];
+        for(int y = 0; y < side; y++) {
+            int sy = (int) ((long) y * (this.height - 1) / size);
+            for(int x = 0; x < side; x++) {
+                int sx = (int) ((long) x * (this.width - 1) / size);
+                heights[y * side + x] = this.heightAt(sx, sy);
+            }
+        }
+        return new Board(side, side, heights, false);
+    }
+}
+class ForbiddenIslandWorld extends World {
+    // All the cells of the game, including the ocean
+    Board board;
+    // the water height at which each cell of the board goes under
+    FloodMap floodMap;
+    // the terrain as last drawn, when the terrain is drawn from a raster
+    TerrainRaster raster;
+    // whether the terrain is drawn from a kept raster rather than cell by cell
+    boolean rasterTerrain;
+
+    // everyone on the island, in the order they joined
+    ArrayList<Player> players;
+    // how many players each new game starts with
+    int playerCount;
+    // keys pressed since the last tick, applied in order at the start of the next
+    InputQueue inputs;
+    // ticks played since the game started
+    int tick;
+
+    PickupIndex pickups;
+
+    Helicopter copter;
+
+    // -1 if lost, 1 if won, 0 if not over
+    int gameOver;
+    int score;
+    
+    boolean pause;
+
+    // the current height of the ocean
+    int waterHeight;
+    int count;
+    static final int ISLAND_SIZE = 64;
+    // the island is islandSize + 1 cells across; ISLAND_SIZE unless chosen
+    int islandSize;
+    // the source of every random choice in this game
+    GameRandom random;
+    // times each phase of a tick and frame when set; "h" turns it on and off
+    TickProfiler profiler;
+    // the dry cells nothing stands on, for spawning onto
+    SpawnIndex spawns;
+    // where applied keys are written while the game is being recorded
+    InputLog log;
+    // the terrain of the "f" board, if one has been loaded
+    HeightmapFile heightmap;
+    // plays the game at a fixed step on its own thread while it is running
+    GameLoop loop;
+    // finds routes to the helicopter for the hint and the autopilot
+    RouteFinder routes;
+    // whether each player's route is drawn; "g" turns it on and off
+    boolean showRoute;
+    // boards made ahead for the next resets, if any
+    BoardPool pool;
+    // shows part of the board at a chosen zoom, if set; otherwise all of it
+    // is drawn at 8 pixels a cell
+    Camera camera;
+    // writes a frame of each tick to disk, if recording; started and stopped
+    // from the event thread, read by whichever thread ticks
+    volatile FrameRecorder recorder;
+    ForbiddenIslandWorld(String mode) {
+        this(mode, new SplittableRandom().nextLong());
+    }
+    // a game whose boards and spawns are all decided by the given seed
+    ForbiddenIslandWorld(String mode, long seed) {
+        this(mode, seed, ForbiddenIslandWorld.ISLAND_SIZE);
+    }
+    // the island size must be a power of two for the "t" board
+    ForbiddenIslandWorld(String mode, long seed, int islandSize) {
+        this(mode, seed, islandSize, 1);
+    }
+    ForbiddenIslandWorld(String mode, long seed, int islandSize, int playerCount) {
+        this.islandSize = islandSize;
+        this.playerCount = playerCount;
+        this.inputs = new InputQueue();
+        this.rasterTerrain = true;
+        this.reset(mode, new GameRandom(seed));
+        this.pause = true;
+    }
+    // a world with no board, only for making boards with
+    ForbiddenIslandWorld(int islandSize, GameRandom random) {
+        this.islandSize = islandSize;
+        this.random = random;
+    }
+    // a world on a board made elsewhere, such as a saved game, with nobody on
+    // it yet; the caller places the helicopter, the players and the pieces
+    ForbiddenIslandWorld(Board board, GameRandom random, int islandSize, int playerCount) {
+        this.islandSize = islandSize;
+        this.playerCount = playerCount;
+        this.inputs = new InputQueue();
+        this.rasterTerrain = true;
+        this.random = random;
+        this.board = board;
+        this.floodMap = new FloodMap(board);
+        this.spawns = new SpawnIndex(board);
+        this.players = new ArrayList<Player>();
+        this.pickups = new PickupIndex(board);
+    }
+    // saves the game as it is now and logs every key applied from here on, so
+    // that Replay can play it again. A game with a heightmap is refused: the
+    // snapshot does not hold the heightmap, so an "f" reset could not be
+    // replayed.
+    void record(Path snapshot, Path keys) throws IOException {
+        if(this.heightmap != null) {
+            throw new IllegalStateException("cannot record a game that can reset from a heightmap");
+        }
+        GameSnapshot.save(this, snapshot);
+        this.log = new InputLog(keys);
+    }
+    void stopRecording() throws IOException {
+        if(this.log != null) {
+            this.log.close();
+            this.log = null;
+        }
+    }
+    // writes a picture of each tick from the next one on into the given
+    // directory, for watching rather than replaying, ending any frames
+    // already being recorded
+    FrameRecorder recordFrames(File directory) {
+        this.stopRecordingFrames();
+        this.recorder = new FrameRecorder(directory, FrameRecorder.CAPACITY).start();
+        return this.recorder;
+    }
+    // ends recording frames without waiting for those captured to be written
+    void stopRecordingFrames() {
+        FrameRecorder r = this.recorder;
+        this.recorder = null;
+        if(r != null) {
+            r.close();
+        }
+    }
+    // starts a new game on a new board, drawing from the given random streams
+    public void reset(String mode, GameRandom random) {
+        this.random = random;
+        this.reset(mode);
+    }
+    public void reset(String mode) {
+        this.random.nextBoard();
+        this.score = 0;
+        this.waterHeight = 0;
+        this.count = 0;
+        this.tick = 0;
+        this.gameOver = 0;
+        this.pause = false;
+        PreparedBoard ready = this.pool == null ? null : this.pool.take(mode, this.random);
+        if(ready != null) {
+            this.board = ready.board;
+            this.floodMap = ready.floodMap;
+            this.spawns = ready.spawns;
+        }
+        else {
+            this.board = this.makeBoard(mode);
+            this.floodMap = new FloodMap(this.board);
+            this.spawns = new SpawnIndex(this.board);
+        }
+        this.copter = new Helicopter(this.spawns, this.random.pickups);
+        this.players = new ArrayList<Player>();
+        for(int i = 0; i < this.playerCount; i++) {
+            this.players.add(new Player(i, this.spawns, this.random.spawn));
+        }
+        this.pickups = new PickupIndex(this.board);
+        this.pickups.land(this.copter);
+        for(int i = 0; i < 4 * this.playerCount; i++) {
+            this.pickups.add(new Piece(this.spawns, this.random.pickups));
+        }
+    }
+    // the board of the given mode, from the current terrain stream
+    Board makeBoard(String mode) {
+        if (mode.equals("m")) {
+            return this.makeOrderedBoard();
+        }
+        else if (mode.equals("r")) {
+            return this.makeRandomBoard();
+        }
+        else if (mode.equals("t")) {
+            return this.makeAnnoyingBoard();
+        }
+        else if (mode.equals("f")) {
+            if(this.heightmap == null) {
+                throw new IllegalStateException("no heightmap to make a board from");
+            }
+            return this.heightmap.toBoard(this.islandSize);
+        }
+        return this.board;
+    }
+    // loads the heightmap that "f" makes boards from, and plays a board from
+    // it on the next tick
+    HeightmapFile useHeightmap(Path raw) throws IOException {
+        this.heightmap = new HeightmapFile(raw);
+        this.press(0, "f");
+        return this.heightmap;
+    }
+    // shows the game through a camera with a screen of the given size, so
+    // that the window need not grow with the island
+    Camera useCamera(int width, int height) {
+        this.camera = new Camera(width, height);
+        return this.camera;
+    }
+    // plays the game on a GameLoop at the tick rate from now on, rather than
+    // on javalib's ticks, which come late whenever a frame is slow to draw
+    GameLoop useLoop() {
+        if(this.loop != null) {
+            this.loop.stop();
+        }
+        return new GameLoop(this, TickProfiler.TICK_RATE_NANOS).start();
+    }
+    // makes the boards of the next few resets in the background, keeping no
+    // more than the given bytes of them
+    BoardPool usePool(int depth, long budgetBytes) {
+        if(this.pool != null) {
+            this.pool.close();
+        }
+        this.pool = new BoardPool(this.random.seed, this.islandSize, depth, budgetBytes);
+        this.pool.refill(this.random.generation);
+        return this.pool;
+    }
+
+    // keys are only queued here, on the event thread, and take effect at the
+    // start of the next tick; w, a, s and d move a second player
+    public void onKeyEvent(String ke) {
+        // the camera is only moved by the thread that ticks, which also reads
+        // it and the players it follows, so its keys wait in the queue too
+        if(this.camera != null && Camera.isKey(ke)) {
+            this.press(PlayerInput.VIEW, ke);
+            return;
+        }
+        // recording changes nothing in the game, so it is neither queued
+        // nor logged
+        if(ke.equals("v")) {
+            if(this.recorder == null) {
+                this.recordFrames(new File(FrameRecorder.DIRECTORY));
+            }
+            else {
+                this.stopRecordingFrames();
+            }
+            return;
+        }
+        int wasd = ke.length() == 1 ? "wasd".indexOf(ke) : -1;
+        if(wasd >= 0) {
+            this.press(1, Player.MOVES[wasd]);
+        }
+        else {
+            this.press(0, ke);
+        }
+    }
+    // queues a key from the given player, from any thread; false if the queue
+    // was full and the key was dropped
+    public boolean press(int player, String key) {
+        return this.inputs.offer(new PlayerInput(player, key, System.nanoTime()));
+    }
+    // applies at most a batch of queued keys, in the order they were queued
+    void applyInputs() {
+        for(int i = 0; i < InputQueue.BATCH; i++) {
+            PlayerInput in = this.inputs.poll();
+            if(in == null) {
+                return;
+            }
+            if(this.profiler != null) {
+                this.profiler.inputLatency.record(System.nanoTime() - in.queuedAt);
+            }
+            // moving the camera changes nothing in the game, so it is not
+            // logged
+            if(in.player == PlayerInput.VIEW) {
+                this.moveCamera(in.key);
+                continue;
+            }
+            if(this.log != null) {
+                this.log.append(this.tick, in);
+            }
+            this.apply(in);
+        }
+    }
+    void moveCamera(String ke) {
+        if(this.camera != null) {
+            // a pan starts from where the view is, following or not
+            this.camera.follow(this);
+            this.camera.onKeyEvent(ke);
+        }
+    }
+    void apply(PlayerInput in) {
+        String ke = in.key;
+        if (ke.equals("m") ||
+                ke.equals("r") ||
+                ke.equals("t") ||
+                (ke.equals("f") && this.heightmap != null)) {
+            this.reset(ke);
+        }
+        else if (ke.equals("p")) {
+            this.pause = !this.pause;
+        }
+        else if (ke.equals("h")) {
+            this.profiler = this.profiler == null ? new TickProfiler() : null;
+        }
+        else if (ke.equals("g")) {
+            this.showRoute = !this.showRoute;
+            if(this.routes == null) {
+                this.routes = new RouteFinder(this);
+            }
+        }
+        else if (in.player >= 0 && in.player < this.players.size()) {
+            Player player = this.players.get(in.player);
+            if(player.status != 0) {
+                return;
+            }
+            Cell from = player.posn;
+            player.onKeyEvent(ke);
+            if(player.posn != from) {
+                this.spawns.vacate(from);
+                this.spawns.occupy(player.posn);
+            }
+        }
+    }
+    public void onTick() {
+        // a running GameLoop plays the game on its own thread
+        if(this.loop != null) {
+            return;
+        }
+        this.step();
+    }
+    // applies the queued keys and plays one tick
+    void step() {
+        TickProfiler p = this.profiler;
+        if(p == null) {
+            this.applyInputs();
+        }
+        else {
+            p.begin(TickProfiler.INPUT);
+            this.applyInputs();
+            p.end(TickProfiler.INPUT);
+        }
+        this.advance();
+        this.planRoutes();
+        FrameRecorder r = this.recorder;
+        if(r != null) {
+            r.capture(this);
+        }
+    }
+    // works out the routes shown as hints, as part of the tick, so that
+    // drawing and recording only ever read them
+    void planRoutes() {
+        if(!this.showRoute || this.routes == null || this.gameOver != 0) {
+            return;
+        }
+        for(Player p: this.players) {
+            if(p.status == 0) {
+                this.routes.route(p);
+            }
+        }
+    }
+    // plays one tick of the game on the keys applied so far
+    void advance() {
+        if(this.gameOver == 0 && !this.pause) {
+            TickProfiler p = this.profiler;
+            this.tick++;
+            if(p == null) {
+                this.checkForCollisions();
+                this.adjustForFlooding();
+                this.endIfReady();
+                return;
+            }
+            p.begin(TickProfiler.TICK);
+            p.begin(TickProfiler.COLLISIONS);
+            this.checkForCollisions();
+            p.end(TickProfiler.COLLISIONS);
+            p.begin(TickProfiler.FLOODING);
+            this.adjustForFlooding();
+            p.end(TickProfiler.FLOODING);
+            p.begin(TickProfiler.END);
+            this.endIfReady();
+            p.end(TickProfiler.END);
+            p.end(TickProfiler.TICK);
+        }
+
+    }
+
+    // a player escapes on the helicopter with three pieces or drowns; the game
+    // is won once nobody is left on the island and somebody escaped
+    public void endIfReady(){
+        int playing = 0;
+        int escaped = 0;
+        int total = 0;
+        for(Player player: this.players) {
+            if(player.status == 0) {
+                if (this.pickups.hasHelicopter(player.posn)
+                        && player.inventory.size() >= 3) {
+                    player.status = 1;
+                    player.score = (600 - (this.waterHeight * 10 + count)) * player.inventory.size();
+                    this.spawns.vacate(player.posn);
+                }
+                else if (player.posn.isFlooded) {
+                    player.status = -1;
+                }
+            }
+            if(player.status == 0) {
+                playing++;
+            }
+            if(player.status == 1) {
+                escaped++;
+            }
+            total += player.score;
+        }
+        this.score = total;
+        if(playing == 0) {
+            this.gameOver = escaped > 0 ? 1 : -1;
+        }
+    }
+
+    public void checkForCollisions() {
+        for(Player player: this.players) {
+            if(player.status == 0) {
+                Cell at = player.posn;
+                int collected = this.pickups.collect(at, player.inventory);
+                for(int i = 0; i < collected; i++) {
+                    this.spawns.vacate(at);
+                }
+            }
+        }
+    }
+    public void adjustForFlooding() {
+        count++;
+        if(count != 10) {
+            return;
+        }
+        else {
+            this.waterHeight++;
+            count = 0;
+            List<Cell> flooding = this.floodMap.cellsFloodingAt(this.waterHeight);
+            for(Cell c: flooding) {
+                c.isFlooded = true;
+                this.spawns.flood(c);
+            }
+            if(this.routes != null) {
+                this.routes.flooded(flooding);
+            }
+            if(this.profiler != null) {
+                this.profiler.floodCells.record(flooding.size());
+            }
+        }
+    }
+
+    public Board makeOrderedBoard() {
+        ArrayList<ArrayList<Double>> heights = new ArrayList<ArrayList<Double>>();
+        for(int y = 0; y < this.islandSize+1; y++) {
+            ArrayList<Double> row = new ArrayList<Double>();
+            for(int x = 0; x < this.islandSize+1; x++) {
+                Double height = this.makeOrderedHeight(x, y);
+                row.add(height);
+            }
+            heights.add(row);
+        }
+        Board ret = this.convertToCells(heights);
+        return ret;
+    }
+    public Double makeOrderedHeight(int x, int y) {
+        int center = this.islandSize/2;
+        double dist = Math.abs(center - x) + Math.abs(center - y);
+        if(dist > center) {
+            return 0.0;
+        }
+        else {
+            return this.islandSize/2 - dist;
+        }
+    }
+
+
+
+
+    public Board makeRandomBoard() {
+        ArrayList<ArrayList<Double>> heights = new ArrayList<ArrayList<Double>>();
+        for(int y = 0; y < this.islandSize+1; y++) {
+            ArrayList<Double> row = new ArrayList<Double>();
+            for(int x = 0; x < this.islandSize+1; x++) {
+                Double height = this.makeRandomHeight(x, y);
+                row.add(height);
+            }
+            heights.add(row);
+        }
+        Board ret = this.convertToCells(heights);
+        return ret;
+    }
+    public Double makeRandomHeight(int x, int y) {
+        int center = this.islandSize/2;
+        double dist = Math.abs(center - x) + Math.abs(center - y);
+        if(dist > center) {
+            return 0.0;
+        }
+        else {
+            return ((double)this.random.terrain.nextInt(31) + 1);
+        }
+    }
+
+
+
+
+
+    public Board makeAnnoyingBoard() {
+        DiamondSquare terrain = new DiamondSquare(this.islandSize);
+        terrain.generate(this.random.terrain);
+        return new Board(terrain.width, terrain.width, terrain.heights, false);
+    }
+    public Board convertToCells(ArrayList<ArrayList<Double>> heights) {
+        int rows = heights.size();
+        int cols = heights.get(0).size();
+        double[] flat = new double[rows * cols];
+        for(int i = 0; i < rows; i++) {
+            ArrayList<Double> row = heights.get(i);
+            for(int j = 0; j < cols; j++) {
+                flat[i * cols + j] = row.get(j);
+            }
+        }
+        return new Board(cols, rows, flat, false);
+    }
+    public IList<Cell> convertHelper(ArrayList<ArrayList<Cell>> board) {
+        IList<Cell> ret = new Empty<Cell>();
+        for(ArrayList<Cell> r: board) {
+            for(Cell c: r) {
+                ret = new Cons<Cell>(c, ret);
+            }
+        }
+        return ret;
+    }
+    public WorldImage makeImage() {
+        if(this.loop != null) {
+            return this.loop.frame();
+        }
+        TickProfiler p = this.profiler;
+        if(p == null) {
+            return this.drawWorld();
+        }
+        p.begin(TickProfiler.IMAGE);
+        WorldImage image = this.drawWorld();
+        p.end(TickProfiler.IMAGE);
+        return p.overlay(image, this.islandSize * 4);
+    }
+    WorldImage drawWorld() {
+        if(this.camera != null) {
+            return new FrameState(this).render(null);
+        }
+        if(this.pause) {
+            return Assets.pauseScreen(this.islandSize);
+        }
+        if (this.gameOver == 0) {
+            WorldImage image;
+            if(this.rasterTerrain) {
+                if(this.raster == null || this.raster.board != this.board) {
+                    this.raster = new TerrainRaster(this.board);
+                }
+                this.raster.update(this.waterHeight);
+                image = this.raster.render(8);
+            }
+            else {
+                image = this.players.get(0).renderPlayer();
+                for(Cell c: this.board) {
+                    image = new OverlayImages(image, c.renderCell(this.waterHeight));
+                }
+            }
+            for(Piece p: this.pickups) {
+                image = new OverlayImages(image, p.renderPiece());
+            }
+            image = image.overlayImages(copter.renderPiece());
+            image = ForbiddenIslandWorld.drawRoute(image, this.board, this.routeAhead());
+            for(Player player: this.players) {
+                if(player.status == 0) {
+                    image = image.overlayImages(player.renderPlayer());
+                }
+            }
+            return image;
+        }
+        else {
+            return Assets.endScreen(this.islandSize, this.gameOver, this.score);
+        }
+        
+    }
+    // the cells still ahead on the route of each player on the island, if
+    // routes are shown; only reads the routes planned by the last tick
+    int[] routeAhead() {
+        if(!this.showRoute || this.routes == null) {
+            return new int[0];
+        }
+        int clock = RouteFinder.clockOf(this);
+        int[] ahead = new int[0];
+        for(Player player: this.players) {
+            Route r = player.status == 0 ? this.routes.planned(player) : null;
+            if(r != null) {
+                int from = ahead.length;
+                int step = clock - r.start + 1;
+                ahead = Arrays.copyOf(ahead, from + r.cells.length - step);
+                System.arraycopy(r.cells, step, ahead, from, r.cells.length - step);
+            }
+        }
+        return ahead;
+    }
+    static WorldImage drawRoute(WorldImage image, Board board, int[] cells) {
+        for(int cell: cells) {
+            image = new OverlayImages(image, Assets.at(Assets.HINT, board.cells[cell]));
+        }
+        return image;
+    }
+    static WorldImage composePauseScreen(int islandSize) {
+        WorldImage image = new TextImage(new Posn(islandSize * 4,
+                islandSize * 4 - 30), "PAUSE", 50, 0, new Green());
+        image = image.overlayImages(new TextImage(new Posn(islandSize * 4,
+                islandSize * 4), "Press m, t, or r to play, press p to pause.", 25, 0, new Green()));
+        image = image.overlayImages(new TextImage(new Posn(islandSize * 4,
+                islandSize * 4 + 30), "Collect three pieces and return to the.", 25, 0, new Green()));
+        image = image.overlayImages(new TextImage(new Posn(islandSize * 4,
+                islandSize * 4 + 60), "helicopter to win. Watch out for floods!", 25, 0, new Green()));
+        return image;
+    }
+    // the screen for a game that is over, won if gameOver is 1, without the
+    // score a won game shows
+    static WorldImage composeEndScreen(int islandSize, int gameOver) {
+        if (gameOver == 1) {
+            WorldImage image = new TextImage(new Posn(islandSize * 4,
+                    islandSize * 4 - 30), "YOU WIN", 50, 0, new Blue());
+            image = image.overlayImages(new TextImage(new Posn(islandSize * 4,
+                    islandSize * 4 + 30), "Press m, t, or r to play again", 25, 0, new Blue()));
+            return image;
+        }
+        else {
+            WorldImage image = new TextImage(new Posn(islandSize * 4,
+                    islandSize * 4), "YOU LOSE", 50, 0, new Red());
+            image = image.overlayImages(new TextImage(new Posn(islandSize * 4,
+                    islandSize * 4 + 50), "Press m, t, or r to play again", 25, 0, new Red()));
+            return image;
+        }
+    }
+    // the score on a won game's screen
+    static WorldImage composeScore(int islandSize, int score) {
+        return new TextImage(new Posn(islandSize * 4, islandSize * 4), "Score: " + score, 25, 0, new Blue());
+    }
+}
+// The dry cells of a board that nothing stands on, kept packed in an array
+// that a cell is swapped out of when it floods or is stood on, so that drawing
+// one at random without replacement takes O(1). Also keeps the highest dry
+// cell, which only moves down the board as the water rises.
+class SpawnIndex {
+    Board board;
+    // the indices of the free cells are free[0] up to free[size]
+    int[] free;
+    int size;
+    // where each cell is in free, or -1 if it is not free
+    int[] slot;
+    // how many pieces, players and helicopters stand on each cell
+    int[] occupants;
+    // the cells from highest to lowest, ties in board order
+    Cell[] byHeight;
+    // byHeight[highest] is the highest cell not yet known to be flooded
+    int highest;
+    SpawnIndex(Board board) {
+        this.board = board;
+        int n = board.size();
+        this.free = new int[n];
+        this.slot = new int[n];
+        this.occupants = new int[n];
+        this.size = 0;
+        for(int i = 0; i < n; i++) {
+            this.slot[i] = -1;
+            if(!board.cells[i].isFlooded) {
+                this.add(i);
+            }
+        }
+        this.byHeight = board.cells.clone();
+        Arrays.sort(this.byHeight, Collections.reverseOrder(new HeightOrder()));
+        this.highest = 0;
+    }
+    void add(int index) {
+        this.slot[index] = this.size;
+        this.free[this.size] = index;
+        this.size++;
+    }
+    // takes the cell out of the free cells by moving the last one into its place
+    void remove(int index) {
+        int at = this.slot[index];
+        if(at < 0) {
+            return;
+        }
+        this.size--;
+        int last = this.free[this.size];
+        this.free[at] = last;
+        this.slot[last] = at;
+        this.slot[index] = -1;
+    }
+    boolean isFree(Cell c) {
+        return this.slot[this.board.indexOf(c)] >= 0;
+    }
+    // a free cell chosen at random, which is then stood on
+    Cell take(SplittableRandom rand) {
+        if(this.size == 0) {
+            throw new RuntimeException("no dry cell left to spawn on");
+        }
+        Cell c = this.board.cells[this.free[rand.nextInt(this.size)]];
+        this.occupy(c);
+        return c;
+    }
+    void occupy(Cell c) {
+        int index = this.board.indexOf(c);
+        this.occupants[index]++;
+        this.remove(index);
+    }
+    // something has left the cell; it is free again once nothing else is on it
+    void vacate(Cell c) {
+        int index = this.board.indexOf(c);
+        if(this.occupants[index] > 0) {
+            this.occupants[index]--;
+        }
+        if(this.occupants[index] == 0 && !c.isFlooded && this.slot[index] < 0) {
+            this.add(index);
+        }
+    }
+    void flood(Cell c) {
+        this.remove(this.board.indexOf(c));
+    }
+    // the highest cell that is not under water, whether or not it is stood on,
+    // or the highest cell of all once everything is
+    Cell highest() {
+        while(this.highest < this.byHeight.length - 1 && this.byHeight[this.highest].isFlooded) {
+            this.highest++;
+        }
+        return this.byHeight[this.highest];
+    }
+}
+// The pieces still to be collected, found by the cell they are on so that a
+// player only has to look at their own cell. Pieces on one cell are chained
+// through Piece.below, and all of them are kept packed in a list that a
+// collected piece is swapped out of, for drawing.
+class PickupIndex implements Iterable<Piece> {
+    Board board;
+    // the last piece put on each cell, or null
+    Piece[] top;
+    // the cells a helicopter has landed on
+    boolean[] helipads;
+    ArrayList<Piece> pieces;
+    PickupIndex(Board board) {
+        this.board = board;
+        this.top = new Piece[board.size()];
+        this.helipads = new boolean[board.size()];
+        this.pieces = new ArrayList<Piece>();
+    }
+    void add(Piece p) {
+        int index = this.board.indexOf(p.posn);
+        p.below = this.top[index];
+        this.top[index] = p;
+        p.slot = this.pieces.size();
+        this.pieces.add(p);
+    }
+    void land(Helicopter h) {
+        this.helipads[this.board.indexOf(h.posn)] = true;
+    }
+    boolean hasHelicopter(Cell c) {
+        return this.helipads[this.board.indexOf(c)];
+    }
+    // moves every piece on the given cell into the inventory and returns how
+    // many there were
+    int collect(Cell c, ArrayList<Piece> inventory) {
+        int index = this.board.indexOf(c);
+        int collected = 0;
+        Piece p = this.top[index];
+        while(p != null) {
+            Piece below = p.below;
+            this.unlist(p);
+            p.below = null;
+            inventory.add(p);
+            collected++;
+            p = below;
+        }
+        this.top[index] = null;
+        return collected;
+    }
+    // takes the piece out of the packed list by moving the last one into its place
+    void unlist(Piece p) {
+        int last = this.pieces.size() - 1;
+        Piece moved = this.pieces.get(last);
+        this.pieces.set(p.slot, moved);
+        moved.slot = p.slot;
+        this.pieces.remove(last);
+        p.slot = -1;
+    }
+    Piece get(int i) {
+        return this.pieces.get(i);
+    }
+    int size() {
+        return this.pieces.size();
+    }
+    public Iterator<Piece> iterator() {
+        return this.pieces.iterator();
+    }
+}
+class Piece {
+    Cell posn;
+    // the piece under this one on its cell, while it is in a PickupIndex
+    Piece below;
+    // where this piece is in the list of its PickupIndex
+    int slot;
+
+    Piece(SpawnIndex spawns, SplittableRandom rand) {
+        this.posn = this.getRandomCell(spawns, rand);
+    }
+    Piece(Cell posn) {
+        this.posn = posn;
+    }
+
+    // a dry cell that nothing else is on, which this piece now stands on
+    Cell getRandomCell(SpawnIndex spawns, SplittableRandom rand) {
+        return spawns.take(rand);
+    }
+    WorldImage renderPiece() {
+        return Assets.at(Assets.PIECE, this.posn);
+    }
+}
+class Helicopter extends Piece {
+    Helicopter(SpawnIndex spawns, SplittableRandom rand) {
+        super(spawns, rand);
+    }
+    Helicopter(Cell posn) {
+        super(posn);
+    }
+    // the highest cell of the island
+    Cell getRandomCell(SpawnIndex spawns, SplittableRandom rand) {
+        Cell curr = spawns.highest();
+        spawns.occupy(curr);
+        return curr;
+    }
+    WorldImage renderPiece() {
+        return Assets.at(Assets.HELICOPTER, this.posn);
+    }
+}
+class Player {
+    static final String[] MOVES = {"up", "left", "down", "right"};
+    static final Color[] COLORS = {Color.YELLOW, Color.ORANGE, Color.CYAN, Color.PINK};
+    // the player's place in the world's list of players
+    int id;
+    Cell posn;
+    ArrayList<Piece> inventory;
+    // 1 once escaped on the helicopter, -1 once drowned, 0 while still playing
+    int status;
+    int score;
+    Player(SpawnIndex spawns, SplittableRandom rand) {
+        this(0, spawns, rand);
+    }
+    Player(int id, SpawnIndex spawns, SplittableRandom rand) {
+        this(id, (Cell) null);
+        this.posn = this.getRandomCell(spawns, rand);
+    }
+    Player(int id, Cell posn) {
+        this.id = id;
+        this.posn = posn;
+        this.inventory = new ArrayList<Piece>();
+    }
+
+    Cell getRandomCell(SpawnIndex spawns, SplittableRandom rand) {
+        return spawns.take(rand);
+    }
+    public WorldImage renderPlayer() {
+        return Assets.at(Assets.PLAYERS[this.id % Assets.PLAYERS.length], this.posn);
+    }
+    void onKeyEvent(String ke) {
+        if(ke.equals("up")) {
+            if(!this.posn.top.isFlooded) {
+                this.posn = this.posn.top;
+            }
+        }
+        if(ke.equals("down")) {
+            if(!this.posn.bottom.isFlooded) {
+                this.posn = this.posn.bottom;
+            }
+        }
+        if(ke.equals("left")) {
+            if(!this.posn.left.isFlooded) {
+                this.posn = this.posn.left;
+            }
+        }
+        if(ke.equals("right")) {
+            if(!this.posn.right.isFlooded) {
+                this.posn = this.posn.right;
+            }
+        }
+    }
+}
+
+
+// A key pressed by one player, stamped with when it was queued
+class PlayerInput {
+    // the player of the camera's keys, which are not any player's
+    static final int VIEW = -1;
+    int player;
+    String key;
+    long queuedAt;
+    PlayerInput(int player, String key, long queuedAt) {
+        this.player = player;
+        this.key = key;
+        this.queuedAt = queuedAt;
+    }
+}
+// Keys from any number of threads, waiting for the next tick. The queue is
+// lock-free, and it is bounded so that a flood of keys from fast clients is
+// dropped rather than delaying every key behind it; each tick applies at most
+// BATCH of them so that the time a tick takes stays bounded too.
+class InputQueue {
+    static final int CAPACITY = 1024;
+    static final int BATCH = 256;
+    ConcurrentLinkedQueue<PlayerInput> queue;
+    // how many keys are waiting, which the queue itself cannot say in O(1)
+    AtomicInteger pending;
+    LongAdder dropped;
+    InputQueue() {
+        this.queue = new ConcurrentLinkedQueue<PlayerInput>();
+        this.pending = new AtomicInteger();
+        this.dropped = new LongAdder();
+    }
+    boolean offer(PlayerInput in) {
+        if(this.pending.incrementAndGet() > CAPACITY) {
+            this.pending.decrementAndGet();
+            this.dropped.increment();
+            return false;
+        }
+        this.queue.offer(in);
+        return true;
+    }
+    PlayerInput poll() {
+        PlayerInput in = this.queue.poll();
+        if(in != null) {
+            this.pending.decrementAndGet();
+        }
+        return in;
+    }
+    int size() {
+        return this.pending.get();
+    }
+}
+// Chooses the key to press on each tick of a game, or null to press nothing
+interface IAgent {
+    String nextKey(ForbiddenIslandWorld world);
+}
+// Makes a fresh agent for each game of a batch
+interface IAgentMaker {
+    IAgent make(long seed);
+}
+// Presses a fixed sequence of keys, one per tick, then nothing
+class ScriptedAgent implements IAgent {
+    String[] keys;
+    int next;
+    ScriptedAgent(String... keys) {
+        this.keys = keys;
+        this.next = 0;
+    }
+    public String nextKey(ForbiddenIslandWorld world) {
+        if(this.next >= this.keys.length) {
+            return null;
+        }
+        String key = this.keys[this.next];
+        this.next++;
+        return key;
+    }
+}
+// Wanders the island by pressing a random arrow key on every tick
+class RandomWalkAgent implements IAgent {
+    static final String[] MOVES = {"up", "down", "left", "right"};
+    SplittableRandom rand;
+    RandomWalkAgent(long seed) {
+        this.rand = new SplittableRandom(seed);
+    }
+    public String nextKey(ForbiddenIslandWorld world) {
+        return MOVES[this.rand.nextInt(MOVES.length)];
+    }
+}
+class RandomWalkMaker implements IAgentMaker {
+    public IAgent make(long seed) {
+        return new RandomWalkAgent(seed);
+    }
+}
+// Walks the first player along the fastest safe route to the pieces and the
+// helicopter, and stands still once there is none
+class AutopilotAgent implements IAgent {
+    public String nextKey(ForbiddenIslandWorld world) {
+        if(world.routes == null) {
+            world.routes = new RouteFinder(world);
+        }
+        return world.routes.nextKey(world.players.get(0));
+    }
+}
+class AutopilotMaker implements IAgentMaker {
+    public IAgent make(long seed) {
+        return new AutopilotAgent();
+    }
+}
+// How a single game ended
+class GameResult {
+    long seed;
+    // -1 if lost, 1 if won, 0 if it ran out of ticks
+    int gameOver;
+    int score;
+    int ticks;
+    GameResult(long seed, int gameOver, int score, int ticks) {
+        this.seed = seed;
+        this.gameOver = gameOver;
+        this.score = score;
+        this.ticks = ticks;
+    }
+}
+// Plays one game without a canvas, stepping the world as fast as possible.
+// Each tick the agent may press one key, and then the world ticks.
+class HeadlessGame {
+    ForbiddenIslandWorld world;
+    IAgent agent;
+    long seed;
+    HeadlessGame(String mode, long seed, IAgent agent) {
+        this.world = new ForbiddenIslandWorld(mode, seed);
+        this.world.pause = false;
+        this.agent = agent;
+        this.seed = seed;
+    }
+    // plays until the game is over or the given number of ticks have passed
+    GameResult play(int maxTicks) {
+        int ticks = 0;
+        while(this.world.gameOver == 0 && ticks < maxTicks) {
+            this.step();
+            ticks++;
+        }
+        return new GameResult(this.seed, this.world.gameOver, this.world.score, ticks);
+    }
+    void step() {
+        String key = this.agent.nextKey(this.world);
+        if(key != null) {
+            this.world.onKeyEvent(key);
+        }
+        this.world.onTick();
+    }
+}
+// The combined outcome of many games
+class BatchResult {
+    // width of the buckets scores are counted in
+    static final int SCORE_BUCKET = 100;
+    int games, wins, losses;
+    long totalScore;
+    int bestScore;
+    // how many won games scored in each bucket, by the bucket's lowest score
+    TreeMap<Integer, Integer> scores;
+    long elapsedNanos;
+    BatchResult() {
+        this.scores = new TreeMap<Integer, Integer>();
+        this.bestScore = Integer.MIN_VALUE;
+    }
+    void add(GameResult r) {
+        this.games++;
+        if(r.gameOver == 1) {
+            this.wins++;
+            this.totalScore += r.score;
+            this.bestScore = Math.max(this.bestScore, r.score);
+            this.scores.merge(Math.floorDiv(r.score, SCORE_BUCKET) * SCORE_BUCKET, 1, Integer::sum);
+        }
+        else if(r.gameOver == -1) {
+            this.losses++;
+        }
+    }
+    BatchResult combine(BatchResult that) {
+        this.games += that.games;
+        this.wins += that.wins;
+        this.losses += that.losses;
+        this.totalScore += that.totalScore;
+        this.bestScore = Math.max(this.bestScore, that.bestScore);
+        for(Map.Entry<Integer, Integer> e: that.scores.entrySet()) {
+            this.scores.merge(e.getKey(), e.getValue(), Integer::sum);
+        }
+        return this;
+    }
+    double winRate() {
+        return this.games == 0 ? 0 : (double)this.wins / this.games;
+    }
+    double meanScore() {
+        return this.wins == 0 ? 0 : (double)this.totalScore / this.wins;
+    }
+    double gamesPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.games / (this.elapsedNanos / 1e9);
+    }
+    public String toString() {
+        String s = this.games + " games, win rate " + String.format("%.3f", this.winRate())
+                + ", mean winning score " + String.format("%.1f", this.meanScore())
+                + ", " + String.format("%.0f", this.gamesPerSecond()) + " games/s";
+        for(Map.Entry<Integer, Integer> e: this.scores.entrySet()) {
+            s += "\n  " + e.getKey() + "..." + (e.getKey() + SCORE_BUCKET - 1) + ": " + e.getValue();
+        }
+        return s;
+    }
+}
+// Plays a range of seeds, splitting it in half until it is small enough to
+// play on one thread
+class BatchTask extends RecursiveTask<BatchResult> {
+    private static final long serialVersionUID = 1L;
+    static final int GAMES_PER_TASK = 8;
+    String mode;
+    long firstSeed;
+    int games;
+    IAgentMaker agents;
+    int maxTicks;
+    BatchTask(String mode, long firstSeed, int games, IAgentMaker agents, int maxTicks) {
+        this.mode = mode;
+        this.firstSeed = firstSeed;
+        this.games = games;
+        this.agents = agents;
+        this.maxTicks = maxTicks;
+    }
+    protected BatchResult compute() {
+        if(this.games <= GAMES_PER_TASK) {
+            BatchResult result = new BatchResult();
+            for(int i = 0; i < this.games; i++) {
+                long seed = this.firstSeed + i;
+                result.add(new HeadlessGame(this.mode, seed, this.agents.make(seed)).play(this.maxTicks));
+            }
+            return result;
+        }
+        int half = this.games / 2;
+        BatchTask low = new BatchTask(this.mode, this.firstSeed, half, this.agents, this.maxTicks);
+        BatchTask high = new BatchTask(this.mode, this.firstSeed + half, this.games - half, this.agents, this.maxTicks);
+        low.fork();
+        return high.compute().combine(low.join());
+    }
+}
+// Plays many independent games at once on every core, for tuning how hard
+// each board mode is.
+// Usage: java BatchRunner <mode> <games> [first seed] [max ticks]
+class BatchRunner {
+    static BatchResult run(String mode, long firstSeed, int games, IAgentMaker agents, int maxTicks) {
+        long start = System.nanoTime();
+        BatchResult result = ForkJoinPool.commonPool().invoke(
+                new BatchTask(mode, firstSeed, games, agents, maxTicks));
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "m";
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int maxTicks = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        System.out.println(BatchRunner.run(mode, firstSeed, games, new RandomWalkMaker(), maxTicks));
+    }
+}
+// What a frame needs from the world, copied at the end of a simulation step so
+// that it can be drawn on another thread while the simulation moves on; it is
+// never changed once made. Which cells are flooded is not copied, since it
+// follows from the flood map and the water height.
+class FrameState {
+    int tick;
+    int islandSize;
+    int waterHeight;
+    int gameOver;
+    int score;
+    boolean pause;
+    Board board;
+    FloodMap floodMap;
+    int copter;
+    int[] pieces;
+    // the cells and ids of the players still on the island
+    int[] players;
+    int[] playerIds;
+    // the cells ahead on the players' routes, if shown
+    int[] route;
+    // the part of the board to draw, or null for all of it
+    Camera view;
+    FrameState(ForbiddenIslandWorld w) {
+        this.tick = w.tick;
+        this.islandSize = w.islandSize;
+        this.waterHeight = w.waterHeight;
+        this.gameOver = w.gameOver;
+        this.score = w.score;
+        this.pause = w.pause;
+        this.board = w.board;
+        this.floodMap = w.floodMap;
+        this.copter = w.board.indexOf(w.copter.posn);
+        this.pieces = new int[w.pickups.size()];
+        for(int i = 0; i < this.pieces.length; i++) {
+            this.pieces[i] = w.board.indexOf(w.pickups.get(i).posn);
+        }
+        int playing = 0;
+        for(Player p: w.players) {
+            playing += p.status == 0 ? 1 : 0;
+        }
+        this.players = new int[playing];
+        this.playerIds = new int[playing];
+        int i = 0;
+        for(Player p: w.players) {
+            if(p.status == 0) {
+                this.players[i] = w.board.indexOf(p.posn);
+                this.playerIds[i] = p.id;
+                i++;
+            }
+        }
+        this.route = w.routeAhead();
+        if(w.camera != null) {
+            this.view = w.camera.copy();
+            this.view.follow(w);
+        }
+    }
+    // draws the frame, painting the terrain into the given raster if it is of
+    // this frame's board
+    WorldImage render(TerrainRaster raster) {
+        return this.render(raster, this.view == null ? null : this.view.cache);
+    }
+    // draws the board through the given raster, or through the camera with
+    // its levels and image kept in the given one
+    WorldImage render(TerrainRaster raster, Camera cache) {
+        // the screens are laid out by the number of cells that fit across
+        int across = this.view == null ? this.islandSize : this.view.width / 8;
+        if(this.pause) {
+            return Assets.pauseScreen(across);
+        }
+        if(this.gameOver != 0) {
+            return Assets.endScreen(across, this.gameOver, this.score);
+        }
+        if(this.view != null) {
+            return this.view.render(this, cache);
+        }
+        raster.update(this.waterHeight);
+        WorldImage image = raster.render(8);
+        for(int piece: this.pieces) {
+            image = new OverlayImages(image, new Piece(this.board.cells[piece]).renderPiece());
+        }
+        image = image.overlayImages(new Helicopter(this.board.cells[this.copter]).renderPiece());
+        image = ForbiddenIslandWorld.drawRoute(image, this.board, this.route);
+        for(int i = 0; i < this.players.length; i++) {
+            image = image.overlayImages(new Player(this.playerIds[i], this.board.cells[this.players[i]]).renderPlayer());
+        }
+        return image;
+    }
+}
+// A board seen from further away: each cell stands for a square block of
+// cells of the board below, with their mean height and the height the water
+// must reach to cover most of them: three of four, or all of fewer
+class LodLevel {
+    // cells of the board per side of a cell of this level
+    int block;
+    int width, height;
+    double[] heights;
+    int[] floodHeights;
+    // the board itself
+    LodLevel(Board board, FloodMap floodMap) {
+        this.block = 1;
+        this.width = board.width;
+        this.height = board.height;
+        this.heights = board.heights;
+        this.floodHeights = floodMap.floodHeight;
+    }
+    // the level above the given one, each cell made of two by two of its
+    // cells; past an edge the blocks are made of fewer
+    LodLevel(LodLevel below) {
+        this.block = below.block * 2;
+        this.width = (below.width + 1) / 2;
+        this.height = (below.height + 1) / 2;
+        this.heights = new double[this.width * this.height];
+        this.floodHeights = new int[this.width * this.height];
+        int[] floods = new int[4];
+        for(int y = 0; y < this.height; y++) {
+            for(int x = 0; x < this.width; x++) {
+                double sum = 0;
+                int n = 0;
+                for(int dy = 0; dy < 2; dy++) {
+                    for(int dx = 0; dx < 2; dx++) {
+                        int bx = 2 * x + dx;
+                        int by = 2 * y + dy;
+                        if(bx < below.width && by < below.height) {
+                            sum += below.heights[by * below.width + bx];
+                            floods[n++] = below.floodHeights[by * below.width + bx];
+                        }
+                    }
+                }
+                Arrays.sort(floods, 0, n);
+                this.heights[y * this.width + x] = sum / n;
+                this.floodHeights[y * this.width + x] = floods[n / 2];
+            }
+        }
+    }
+    Color colorAt(int x, int y, int waterHeight) {
+        int i = y * this.width + x;
+        return CellPalette.colorOf(this.floodHeights[i] <= waterHeight, this.heights[i], waterHeight);
+    }
+}
+// What part of the board is on screen, and how large. At zoom z >= 0 a cell
+// is 2^z pixels across; below 0 a pixel stands for a block of 2^-z cells a
+// side, drawn from a level of detail that is built once per board. Either way
+// only what is on screen is drawn, into an image with a pixel per visible cell
+// or block that is scaled up to the screen, so a frame costs the same on any
+// size of board. It follows the first player unless panned away. Only the
+// thread that ticks moves it; frames are drawn from copies.
+class Camera {
+    static final int MIN_ZOOM = -6;
+    static final int MAX_ZOOM = 5;
+    // the size of the screen, in pixels
+    int width, height;
+    int zoom;
+    // the cell at the middle of the screen
+    int centerX, centerY;
+    boolean follow;
+    // the camera the levels and the image below are kept in: this one, or
+    // the one this is a copy of, so that every frame shares them
+    Camera cache;
+    // the levels of detail of the board last drawn, from the board itself up
+    Board board;
+    ArrayList<LodLevel> levels;
+    // the visible cells or blocks, a pixel each, kept from frame to frame
+    BufferedImage view;
+    int[] pixels;
+    Camera(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.zoom = 3;
+        this.follow = true;
+        this.cache = this;
+        this.levels = new ArrayList<LodLevel>();
+    }
+    // the same view, for drawing a frame from while this one moves on
+    Camera copy() {
+        Camera c = new Camera(this.width, this.height);
+        c.zoom = this.zoom;
+        c.centerX = this.centerX;
+        c.centerY = this.centerY;
+        c.follow = this.follow;
+        c.cache = this.cache;
+        return c;
+    }
+    // whether the key is one of those below
+    static boolean isKey(String ke) {
+        return ke.length() == 1 && "+=-cijkl".contains(ke);
+    }
+    // zooms with + or - and pans with i, j, k and l; c follows the first
+    // player again. Returns whether the key was the camera's.
+    boolean onKeyEvent(String ke) {
+        int step = Math.max(1, (this.width >> Math.max(0, this.zoom)) << Math.max(0, -this.zoom)) / 4;
+        if(ke.equals("+") || ke.equals("=")) {
+            this.zoom = Math.min(Camera.MAX_ZOOM, this.zoom + 1);
+        }
+        else if(ke.equals("-")) {
+            this.zoom = Math.max(Camera.MIN_ZOOM, this.zoom - 1);
+        }
+        else if(ke.equals("c")) {
+            this.follow = true;
+        }
+        else if(ke.length() == 1 && "ijkl".contains(ke)) {
+            this.follow = false;
+            this.centerX += ke.equals("j") ? -step : ke.equals("l") ? step : 0;
+            this.centerY += ke.equals("i") ? -step : ke.equals("k") ? step : 0;
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+    // moves to the first player still on the island, if following
+    void follow(ForbiddenIslandWorld w) {
+        if(!this.follow) {
+            return;
+        }
+        for(Player p: w.players) {
+            if(p.status == 0) {
+                this.centerX = p.posn.x;
+                this.centerY = p.posn.y;
+                return;
+            }
+        }
+    }
+    // the level of detail for the current zoom, building the levels of a new
+    // board as far up as needed
+    LodLevel level(Board board, FloodMap floodMap) {
+        return this.level(this.cache, board, floodMap);
+    }
+    // the same, with the levels kept in the given camera
+    LodLevel level(Camera c, Board board, FloodMap floodMap) {
+        if(c.board != board) {
+            c.board = board;
+            c.levels = new ArrayList<LodLevel>();
+            c.levels.add(new LodLevel(board, floodMap));
+        }
+        int k = Math.max(0, -this.zoom);
+        while(c.levels.size() <= k) {
+            c.levels.add(new LodLevel(c.levels.get(c.levels.size() - 1)));
+        }
+        return c.levels.get(k);
+    }
+    // pixels per cell of the level drawn
+    int scale() {
+        return 1 << Math.max(0, this.zoom);
+    }
+    // the first column and row of the level on screen: centred on the
+    // camera, but kept on the board when the board is larger than the screen
+    int left(LodLevel level, int columns) {
+        return Camera.firstShown(this.centerX / level.block, columns, level.width);
+    }
+    int top(LodLevel level, int rows) {
+        return Camera.firstShown(this.centerY / level.block, rows, level.height);
+    }
+    static int firstShown(int center, int shown, int size) {
+        if(size <= shown) {
+            return (size - shown) / 2;
+        }
+        return Math.max(0, Math.min(size - shown, center - shown / 2));
+    }
+    WorldImage render(FrameState state) {
+        return this.render(state, this.cache);
+    }
+    // draws the view with the levels and the image kept in the given camera,
+    // so that threads drawing the same view each keep their own
+    WorldImage render(FrameState state, Camera c) {
+        LodLevel level = this.level(c, state.board, state.floodMap);
+        int scale = this.scale();
+        int columns = (this.width + scale - 1) / scale;
+        int rows = (this.height + scale - 1) / scale;
+        if(c.view == null || c.view.getWidth() != columns || c.view.getHeight() != rows) {
+            c.view = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB);
+            c.pixels = ((DataBufferInt) c.view.getRaster().getDataBuffer()).getData();
+        }
+        int left = this.left(level, columns);
+        int top = this.top(level, rows);
+        int ocean = CellPalette.colorOf(true, 0, 0).getRGB();
+        for(int y = 0; y < rows; y++) {
+            int ly = top + y;
+            for(int x = 0; x < columns; x++) {
+                int lx = left + x;
+                boolean onBoard = lx >= 0 && ly >= 0 && lx < level.width && ly < level.height;
+                c.pixels[y * columns + x] = onBoard ? level.colorAt(lx, ly, state.waterHeight).getRGB() : ocean;
+            }
+        }
+        WorldImage image = new RasterImage(new Posn(columns * scale / 2, rows * scale / 2), c.view, scale);
+        for(int piece: state.pieces) {
+            image = this.place(image, Assets.PIECE, state.board, piece, level, left, top, columns, rows);
+        }
+        image = this.place(image, Assets.HELICOPTER, state.board, state.copter, level, left, top, columns, rows);
+        for(int cell: state.route) {
+            image = this.place(image, Assets.HINT, state.board, cell, level, left, top, columns, rows);
+        }
+        for(int i = 0; i < state.players.length; i++) {
+            image = this.place(image, Assets.PLAYERS[state.playerIds[i] % Assets.PLAYERS.length],
+                    state.board, state.players[i], level, left, top, columns, rows);
+        }
+        return image;
+    }
+    // the sprite over the given cell of the board, if it is on screen
+    WorldImage place(WorldImage image, Sprite sprite, Board board, int cell,
+            LodLevel level, int left, int top, int columns, int rows) {
+        int x = cell % board.width / level.block - left;
+        int y = cell / board.width / level.block - top;
+        if(x < 0 || y < 0 || x >= columns || y >= rows) {
+            return image;
+        }
+        int scale = this.scale();
+        return new OverlayImages(image, new SpriteImage(new Posn(x * scale + scale / 2, y * scale + scale / 2), sprite));
+    }
+}
+// A board made ahead of time, with everything worked out from the board alone
+class PreparedBoard {
+    Board board;
+    FloodMap floodMap;
+    SpawnIndex spawns;
+    // allocated making it, as an estimate of what it keeps
+    long bytes;
+    PreparedBoard(Board board, long bytes) {
+        this.board = board;
+        this.floodMap = new FloodMap(board);
+        this.spawns = new SpawnIndex(board);
+        this.bytes = bytes;
+    }
+}
+// Makes the boards a game will reset to on a background thread, before they
+// are asked for. Which board a reset makes depends on the mode and on how many
+// boards the game's seed has made so far, so the pool keeps, for each mode,
+// the boards for the next few generations; a reset takes its board if it is
+// made and the pool moves on to the generations after it. A board is only
+// started while it would still fit in the memory budget, going by the largest
+// made so far; the counts of boards kept are changed under the pool's lock.
+class BoardPool {
+    static final String[] MODES = {"m", "r", "t"};
+    long seed;
+    int islandSize;
+    // generations made ahead, for each mode
+    int depth;
+    long budgetBytes;
+    // one thread, whose queue a reset can take a board from that has not been
+    // started yet
+    ThreadPoolExecutor builders;
+    // boards being made or made, by BoardPool.key
+    ConcurrentHashMap<Long, Future<PreparedBoard>> boards;
+    // the generation of the last reset
+    int generation;
+    // the bytes of each board made and kept, by key, their total, and the
+    // most one has taken; only changed under the pool's lock
+    HashMap<Long, Long> held;
+    long bytes;
+    long largest;
+    LongAdder hits, waits, misses, skipped;
+    BoardPool(long seed, int islandSize, int depth, long budgetBytes) {
+        this.seed = seed;
+        this.islandSize = islandSize;
+        this.depth = depth;
+        this.budgetBytes = budgetBytes;
+        this.builders = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "board-pool");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        this.boards = new ConcurrentHashMap<Long, Future<PreparedBoard>>();
+        this.held = new HashMap<Long, Long>();
+        this.hits = new LongAdder();
+        this.waits = new LongAdder();
+        this.misses = new LongAdder();
+        this.skipped = new LongAdder();
+    }
+    static long key(String mode, int generation) {
+        return (long) generation * BoardPool.MODES.length + Arrays.asList(BoardPool.MODES).indexOf(mode);
+    }
+    // the board for the given mode and the generation the random streams have
+    // just moved on to, or null if this pool did not make it. A board still
+    // being made is waited for, since that is never slower than starting
+    // over; one still queued behind other boards is taken off the queue and
+    // made here instead.
+    PreparedBoard take(String mode, GameRandom random) {
+        if(random.seed != this.seed || !Arrays.asList(BoardPool.MODES).contains(mode)) {
+            return null;
+        }
+        int generation = random.generation;
+        long key = BoardPool.key(mode, generation);
+        Future<PreparedBoard> ready = this.boards.get(key);
+        PreparedBoard board = null;
+        if(ready != null && !ready.isCancelled()) {
+            (ready.isDone() ? this.hits : this.waits).increment();
+            if(this.builders.remove((Runnable) ready)) {
+                ((FutureTask<PreparedBoard>) ready).run();
+            }
+            try {
+                board = ready.get();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException | CancellationException e) {
+                board = null;
+            }
+        }
+        synchronized(this) {
+            if(board != null && this.boards.get(key) == ready) {
+                this.forget(key);
+            }
+            this.discardBefore(generation + 1);
+        }
+        if(board == null) {
+            this.misses.increment();
+        }
+        this.refill(generation);
+        return board;
+    }
+    // starts the boards not made yet for the generations after the given one,
+    // while they fit in the budget
+    synchronized void refill(int generation) {
+        this.generation = generation;
+        for(int g = generation + 1; g <= generation + this.depth; g++) {
+            for(String mode: BoardPool.MODES) {
+                long key = BoardPool.key(mode, g);
+                if(this.boards.containsKey(key)) {
+                    continue;
+                }
+                if(!this.fits()) {
+                    this.skipped.increment();
+                    return;
+                }
+                int at = g;
+                FutureTask<PreparedBoard> task = new FutureTask<PreparedBoard>(() -> this.make(mode, at, key));
+                try {
+                    this.builders.execute(task);
+                }
+                catch(RejectedExecutionException e) {
+                    return;
+                }
+                this.boards.put(key, task);
+            }
+        }
+    }
+    // whether one more board fits; until one is made its size is unknown, so
+    // only one is made at a time
+    boolean fits() {
+        int pending = 0;
+        for(Future<PreparedBoard> f: this.boards.values()) {
+            pending += f.isDone() ? 0 : 1;
+        }
+        if(this.largest == 0) {
+            return pending == 0;
+        }
+        return this.bytes + (pending + 1) * this.largest <= this.budgetBytes;
+    }
+    PreparedBoard make(String mode, int generation, long key) {
+        long before = Allocation.bytes();
+        ForbiddenIslandWorld maker = new ForbiddenIslandWorld(this.islandSize, GameRandom.atBoard(this.seed, generation));
+        PreparedBoard prepared = new PreparedBoard(maker.makeBoard(mode), 0);
+        long made = Math.max(0, Allocation.bytes() - before);
+        synchronized(this) {
+            this.largest = Math.max(this.largest, made);
+            prepared.bytes = made;
+            // a board dropped while it was being made is not kept
+            if(this.boards.containsKey(key)) {
+                this.held.put(key, made);
+                this.bytes += made;
+            }
+        }
+        // once this task is done, start whatever now fits
+        try {
+            this.builders.execute(() -> this.refill(this.generation));
+        }
+        catch(RejectedExecutionException e) {
+            // closed
+        }
+        return prepared;
+    }
+    // drops the boards for generations no reset will ask for again; called
+    // under the pool's lock
+    void discardBefore(int generation) {
+        for(Long key: new ArrayList<Long>(this.boards.keySet())) {
+            if(key / BoardPool.MODES.length < generation) {
+                this.forget(key);
+            }
+        }
+    }
+    // stops keeping the board of the given key, and its bytes if it was
+    // counted; a board not made yet is never counted once it is dropped
+    void forget(long key) {
+        Future<PreparedBoard> f = this.boards.remove(key);
+        Long kept = this.held.remove(key);
+        if(kept != null) {
+            this.bytes -= kept;
+        }
+        if(f != null && !f.isDone()) {
+            f.cancel(false);
+        }
+    }
+    synchronized long heldBytes() {
+        return this.bytes;
+    }
+    int ready() {
+        int ready = 0;
+        for(Future<PreparedBoard> f: this.boards.values()) {
+            ready += f.isDone() ? 1 : 0;
+        }
+        return ready;
+    }
+    void close() {
+        this.builders.shutdownNow();
+    }
+    public String toString() {
+        return String.format("%d ready, %d hits, %d waits, %d misses, %d KB held, %d refills skipped",
+                this.ready(), this.hits.sum(), this.waits.sum(), this.misses.sum(),
+                this.heldBytes() / 1024, this.skipped.sum());
+    }
+}
+// Draws FrameStates on one thread, keeping the raster and the camera's levels
+// it draws through from frame to frame. Each thread that draws has its own,
+// since both are painted over in place.
+class FrameDrawer {
+    TerrainRaster raster;
+    Camera camera;
+    WorldImage draw(FrameState state) {
+        if(state.view != null) {
+            if(this.camera == null || this.camera.width != state.view.width
+                    || this.camera.height != state.view.height) {
+                this.camera = new Camera(state.view.width, state.view.height);
+            }
+            return state.render(null, this.camera);
+        }
+        if(this.raster == null || this.raster.board != state.board) {
+            this.raster = new TerrainRaster(state.board, state.floodMap);
+        }
+        return state.render(this.raster, null);
+    }
+}
+// Plays a world at a fixed step on a scheduler of its own, however long frames
+// take to draw, so that the water rises and the score counts down in real
+// time. Each wakeup plays as many steps as the time since the last one calls
+// for, but no more than MAX_CATCH_UP; time beyond that is dropped rather than
+// letting a slow machine fall ever further behind. The state after each
+// wakeup is published as a FrameState. Frames are drawn from the newest state,
+// either when javalib asks the world for an image or, given a display, on a
+// thread of their own that skips states published while it was busy.
+class GameLoop {
+    static final int MAX_CATCH_UP = 5;
+    ForbiddenIslandWorld world;
+    long stepNanos;
+    ScheduledExecutorService simulation;
+    // draws frames for the display, or null when javalib pulls them
+    ExecutorService renderer;
+    Consumer<WorldImage> display;
+    AtomicReference<FrameState> latest;
+    AtomicBoolean drawing;
+    // what javalib's makeImage draws through, and what the display thread
+    // draws through, each only touched by its own thread
+    FrameDrawer pulled, pushed;
+    // simulation time owed but not yet played
+    long owed;
+    long lastWake;
+    // counts written by one thread and read by others
+    volatile long steps;
+    volatile long droppedSteps;
+    volatile long published;
+    volatile long drawn;
+    volatile long skipped;
+    GameLoop(ForbiddenIslandWorld world, long stepNanos) {
+        this.world = world;
+        this.stepNanos = stepNanos;
+        this.latest = new AtomicReference<FrameState>(new FrameState(world));
+        this.drawing = new AtomicBoolean(false);
+        this.pulled = new FrameDrawer();
+        this.pushed = new FrameDrawer();
+    }
+    GameLoop(ForbiddenIslandWorld world, long stepNanos, Consumer<WorldImage> display) {
+        this(world, stepNanos);
+        this.display = display;
+    }
+    // hands the world over to the loop; from here on only the loop's thread
+    // plays it, and keys reach it through its input queue
+    GameLoop start() {
+        this.world.loop = this;
+        this.simulation = Executors.newSingleThreadScheduledExecutor(r -> GameLoop.daemon(r, "game-loop"));
+        if(this.display != null) {
+            this.renderer = Executors.newSingleThreadExecutor(r -> GameLoop.daemon(r, "game-display"));
+        }
+        this.lastWake = System.nanoTime();
+        this.simulation.scheduleAtFixedRate(() -> this.wake(System.nanoTime()),
+                this.stepNanos, this.stepNanos, TimeUnit.NANOSECONDS);
+        return this;
+    }
+    // the loop's threads do not keep the program running once the window and
+    // the main thread are gone
+    static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+    // stops the loop and gives the world back to whoever ticks it
+    void stop() {
+        this.simulation.shutdown();
+        try {
+            this.simulation.awaitTermination(1, TimeUnit.SECONDS);
+            if(this.renderer != null) {
+                this.renderer.shutdown();
+                this.renderer.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.world.loop = null;
+    }
+    // plays the steps owed at the given time and publishes the result
+    void wake(long now) {
+        this.owed += now - this.lastWake;
+        this.lastWake = now;
+        int played = 0;
+        while(this.owed >= this.stepNanos && played < MAX_CATCH_UP) {
+            this.world.step();
+            this.owed -= this.stepNanos;
+            played++;
+        }
+        if(this.owed >= this.stepNanos) {
+            this.droppedSteps += this.owed / this.stepNanos;
+            this.owed %= this.stepNanos;
+        }
+        this.steps += played;
+        this.latest.set(new FrameState(this.world));
+        this.published++;
+        if(this.renderer != null) {
+            if(this.drawing.compareAndSet(false, true)) {
+                this.renderer.execute(this::draw);
+            }
+            else {
+                this.skipped++;
+            }
+        }
+    }
+    void draw() {
+        try {
+            this.display.accept(this.frame(this.pushed));
+        }
+        finally {
+            this.drawing.set(false);
+        }
+    }
+    // the newest published state, drawn for javalib
+    WorldImage frame() {
+        return this.frame(this.pulled);
+    }
+    WorldImage frame(FrameDrawer drawer) {
+        FrameState state = this.latest.get();
+        this.drawn++;
+        return drawer.draw(state);
+    }
+}
+// Records a game as a numbered sequence of PNG files without slowing its
+// ticks. Each tick only captures a FrameState, the positions and water
+// height the frame is drawn from, into a ring of slots; a thread of its own
+// takes them out in order, draws them and writes the files. The tick thread
+// is the only one to fill slots and the encoder the only one to empty them,
+// so the ring needs no lock: each side moves its own counter on after it is
+// done with a slot. When the encoder falls behind and the ring is full, the
+// frame is dropped and counted rather than waited for. A frame captured as
+// the recorder closes is either taken out by the encoder or taken back by the
+// capture and dropped, whichever empties its slot first, so every capture
+// ends up written, failed or dropped.
+class FrameRecorder {
+    static final int CAPACITY = 64;
+    // how long the encoder sleeps when there is nothing to write, unless a
+    // capture wakes it first
+    static final long IDLE_NANOS = 10000000L;
+    // where the v key records to, under the working directory
+    static final String DIRECTORY = "recording";
+    File directory;
+    AtomicReferenceArray<FrameState> slots;
+    // frames captured so far, and frames taken out by the encoder
+    AtomicLong tail, head;
+    Thread encoder;
+    volatile boolean sleeping;
+    volatile boolean closed;
+    LongAdder dropped;
+    // files written and frames that failed to write, only counted by the
+    // encoder
+    volatile long written;
+    volatile long failed;
+    // only touched by the encoder
+    FrameDrawer drawer;
+    BufferedImage frame;
+    FrameRecorder(File directory, int capacity) {
+        this.directory = directory;
+        this.slots = new AtomicReferenceArray<FrameState>(capacity);
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.drawer = new FrameDrawer();
+        this.encoder = new Thread(this::encode, "frame-recorder");
+        this.encoder.setDaemon(true);
+        this.encoder.setPriority(Thread.MIN_PRIORITY);
+    }
+    FrameRecorder start() {
+        this.directory.mkdirs();
+        this.encoder.start();
+        return this;
+    }
+    // captures the world as it is after a tick, or counts the frame as
+    // dropped if the encoder has not caught up; false if dropped
+    boolean capture(ForbiddenIslandWorld w) {
+        long t = this.tail.get();
+        if(this.closed || t - this.head.get() >= this.slots.length()) {
+            this.dropped.increment();
+            return false;
+        }
+        int slot = (int) (t % this.slots.length());
+        FrameState state = new FrameState(w);
+        this.slots.set(slot, state);
+        this.tail.set(t + 1);
+        // the encoder may have finished before it could see this frame
+        if(this.closed && this.slots.compareAndSet(slot, state, null)) {
+            this.dropped.increment();
+            return false;
+        }
+        if(this.sleeping) {
+            LockSupport.unpark(this.encoder);
+        }
+        return true;
+    }
+    // the encoder's loop: writes frames until closed and the ring is empty
+    void encode() {
+        while(true) {
+            long h = this.head.get();
+            if(h == this.tail.get()) {
+                // a frame captured before the recorder closed is still
+                // written
+                if(this.closed) {
+                    if(h == this.tail.get()) {
+                        return;
+                    }
+                    continue;
+                }
+                // a capture that misses the flag costs at most one idle wait
+                this.sleeping = true;
+                if(h == this.tail.get() && !this.closed) {
+                    LockSupport.parkNanos(this, FrameRecorder.IDLE_NANOS);
+                }
+                this.sleeping = false;
+                continue;
+            }
+            FrameState state = this.slots.getAndSet((int) (h % this.slots.length()), null);
+            this.head.set(h + 1);
+            if(state == null) {
+                // taken back by a capture after closing
+                continue;
+            }
+            try {
+                this.write(state);
+            }
+            catch(IOException | RuntimeException e) {
+                this.failed++;
+            }
+        }
+    }
+    // draws the frame the way the game would and writes it as the next file
+    void write(FrameState state) throws IOException {
+        int width = state.view == null ? state.board.width * 8 : state.view.width;
+        int height = state.view == null ? state.board.height * 8 : state.view.height;
+        if(this.frame == null || this.frame.getWidth() != width || this.frame.getHeight() != height) {
+            this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = this.frame.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        this.drawer.draw(state).draw(g);
+        g.dispose();
+        ImageIO.write(this.frame, "png", this.fileFor(this.written));
+        this.written++;
+    }
+    File fileFor(long frame) {
+        return new File(this.directory, String.format("frame-%06d.png", frame));
+    }
+    // stops capturing; the frames already captured are still written, in the
+    // background
+    void close() {
+        this.closed = true;
+        LockSupport.unpark(this.encoder);
+    }
+    // waits for the encoder to write what was captured before closing
+    void awaitWritten() {
+        try {
+            this.encoder.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    public String toString() {
+        return String.format("%d frames written, %d dropped, %d failed, %d waiting",
+                this.written, this.dropped.sum(), this.failed, this.tail.get() - this.head.get());
+    }
+}
+// Hears what changes in a session after each of its ticks
+interface ISessionListener {
+    void onDiff(StateDiff diff);
+    void onClose(long session);
+}
+// What changed in a session over one tick: the cells newly flooded, the
+// players that moved and where to, who picked up pieces and where, and the
+// players who escaped or drowned.
+// When the listener has nothing to build on, because it has just joined or
+// the game was reset, the whole game comes along as a snapshot instead.
+class StateDiff {
+    long session;
+    int tick;
+    int waterHeight;
+    int gameOver;
+    int score;
+    int[] flooded;
+    // player id and cell, in pairs
+    int[] moved;
+    // player id and the cell whose pieces they picked up, in pairs
+    int[] collected;
+    // player id, status and score of each player whose status changed, in
+    // threes
+    int[] status;
+    // a GameSnapshot of the whole game, or null
+    ByteBuffer snapshot;
+}
+// One game hosted by a SessionServer. Its ticks run on the server's shared
+// scheduler, never two at once, so the world is only touched by one thread at
+// a time; keys reach it through its input queue, and new listeners through a
+// queue of their own, to be sent the whole game on the next tick.
+class Session {
+    long id;
+    ForbiddenIslandWorld world;
+    CopyOnWriteArrayList<ISessionListener> listeners;
+    // listeners that have not yet been sent the whole game
+    ConcurrentLinkedQueue<ISessionListener> joining;
+    ScheduledFuture<?> future;
+    volatile long lastInput;
+    // when the first tick was due, and how many have run, for measuring lag
+    long started;
+    long ticks;
+    // what the listeners were last told, or a null board if nothing yet
+    Board board;
+    int waterHeight;
+    int[] cells;
+    int[] carried;
+    int[] statuses;
+    Session(long id, ForbiddenIslandWorld world) {
+        this.id = id;
+        this.world = world;
+        this.listeners = new CopyOnWriteArrayList<ISessionListener>();
+        this.joining = new ConcurrentLinkedQueue<ISessionListener>();
+    }
+    boolean press(int player, String key) {
+        this.lastInput = System.nanoTime();
+        return this.world.press(player, key);
+    }
+    void subscribe(ISessionListener listener) {
+        this.joining.offer(listener);
+    }
+    // plays a tick, tells the listeners what changed and sends the whole
+    // game to those who joined since the last one
+    void tick() {
+        this.world.step();
+        this.ticks++;
+        if(!this.listeners.isEmpty()) {
+            StateDiff diff = this.diff();
+            for(ISessionListener listener: this.listeners) {
+                listener.onDiff(diff);
+            }
+        }
+        StateDiff whole = null;
+        for(ISessionListener joined = this.joining.poll(); joined != null; joined = this.joining.poll()) {
+            if(whole == null) {
+                whole = this.snapshot();
+            }
+            joined.onDiff(whole);
+            this.listeners.add(joined);
+        }
+    }
+    StateDiff header() {
+        ForbiddenIslandWorld w = this.world;
+        StateDiff diff = new StateDiff();
+        diff.session = this.id;
+        diff.tick = w.tick;
+        diff.waterHeight = w.waterHeight;
+        diff.gameOver = w.gameOver;
+        diff.score = w.score;
+        return diff;
+    }
+    // the whole game, from which later diffs go on
+    StateDiff snapshot() {
+        ForbiddenIslandWorld w = this.world;
+        int players = w.players.size();
+        this.board = w.board;
+        this.cells = new int[players];
+        this.carried = new int[players];
+        this.statuses = new int[players];
+        for(int i = 0; i < players; i++) {
+            Player p = w.players.get(i);
+            this.cells[i] = w.board.indexOf(p.posn);
+            this.carried[i] = p.inventory.size();
+            this.statuses[i] = p.status;
+        }
+        this.waterHeight = w.waterHeight;
+        StateDiff diff = this.header();
+        diff.snapshot = GameSnapshot.encode(w);
+        diff.flooded = new int[0];
+        diff.moved = new int[0];
+        diff.collected = new int[0];
+        diff.status = new int[0];
+        return diff;
+    }
+    // what changed since the listeners were last told, or the whole game
+    // again after a reset
+    StateDiff diff() {
+        ForbiddenIslandWorld w = this.world;
+        int players = w.players.size();
+        if(this.board != w.board || this.cells.length != players) {
+            return this.snapshot();
+        }
+        StateDiff diff = this.header();
+        int newly = 0;
+        for(int h = this.waterHeight + 1; h <= w.waterHeight; h++) {
+            newly += w.floodMap.cellsFloodingAt(h).size();
+        }
+        diff.flooded = new int[newly];
+        int f = 0;
+        for(int h = this.waterHeight + 1; h <= w.waterHeight; h++) {
+            for(Cell c: w.floodMap.cellsFloodingAt(h)) {
+                diff.flooded[f++] = w.board.indexOf(c);
+            }
+        }
+        this.waterHeight = w.waterHeight;
+        int moves = 0;
+        int pickups = 0;
+        int changed = 0;
+        for(int i = 0; i < players; i++) {
+            Player p = w.players.get(i);
+            moves += w.board.indexOf(p.posn) != this.cells[i] ? 1 : 0;
+            pickups += p.inventory.size() != this.carried[i] ? 1 : 0;
+            changed += p.status != this.statuses[i] ? 1 : 0;
+        }
+        diff.moved = new int[2 * moves];
+        diff.collected = new int[2 * pickups];
+        diff.status = new int[3 * changed];
+        int m = 0;
+        int c = 0;
+        int s = 0;
+        for(int i = 0; i < players; i++) {
+            Player p = w.players.get(i);
+            int cell = w.board.indexOf(p.posn);
+            if(cell != this.cells[i]) {
+                diff.moved[m++] = i;
+                diff.moved[m++] = cell;
+                this.cells[i] = cell;
+            }
+            if(p.inventory.size() != this.carried[i]) {
+                diff.collected[c++] = i;
+                diff.collected[c++] = cell;
+                this.carried[i] = p.inventory.size();
+            }
+            if(p.status != this.statuses[i]) {
+                diff.status[s++] = i;
+                diff.status[s++] = p.status;
+                diff.status[s++] = p.score;
+                this.statuses[i] = p.status;
+            }
+        }
+        return diff;
+    }
+}
+// Hosts many headless games in one JVM. Every session ticks at a fixed rate on
+// one shared scheduled executor rather than a thread of its own, sends its
+// listeners diffs rather than images, and is closed once nobody has pressed a
+// key in it for the idle time.
+class SessionServer {
+    ScheduledExecutorService scheduler;
+    long stepNanos;
+    long idleNanos;
+    ConcurrentHashMap<Long, Session> sessions;
+    AtomicLong ids;
+    LongAdder ticks;
+    LongAdder lagNanos;
+    AtomicLong maxLagNanos;
+    LongAdder opened;
+    LongAdder closed;
+    LongAdder failed;
+    // bytes allocated opening sessions, as an estimate of what each one keeps
+    LongAdder openBytes;
+    SessionServer(int threads, long stepNanos, long idleNanos) {
+        this.scheduler = Executors.newScheduledThreadPool(threads);
+        this.stepNanos = stepNanos;
+        this.idleNanos = idleNanos;
+        this.sessions = new ConcurrentHashMap<Long, Session>();
+        this.ids = new AtomicLong();
+        this.ticks = new LongAdder();
+        this.lagNanos = new LongAdder();
+        this.maxLagNanos = new AtomicLong();
+        this.opened = new LongAdder();
+        this.closed = new LongAdder();
+        this.failed = new LongAdder();
+        this.openBytes = new LongAdder();
+        long sweep = Math.max(1, idleNanos / 2);
+        this.scheduler.scheduleWithFixedDelay(() -> this.evictIdle(System.nanoTime()),
+                sweep, sweep, TimeUnit.NANOSECONDS);
+    }
+    Session open(String mode, long seed, ISessionListener listener) {
+        long before = Allocation.bytes();
+        ForbiddenIslandWorld world = new ForbiddenIslandWorld(mode, seed);
+        world.pause = false;
+        Session s = new Session(this.ids.incrementAndGet(), world);
+        this.openBytes.add(Allocation.bytes() - before);
+        if(listener != null) {
+            s.subscribe(listener);
+        }
+        s.lastInput = System.nanoTime();
+        s.started = s.lastInput + this.stepNanos;
+        this.sessions.put(s.id, s);
+        this.opened.increment();
+        s.future = this.scheduler.scheduleAtFixedRate(() -> this.tick(s),
+                this.stepNanos, this.stepNanos, TimeUnit.NANOSECONDS);
+        return s;
+    }
+    void tick(Session s) {
+        try {
+            long due = s.started + s.ticks * this.stepNanos;
+            long lag = Math.max(0, System.nanoTime() - due);
+            this.lagNanos.add(lag);
+            this.maxLagNanos.accumulateAndGet(lag, Math::max);
+            s.tick();
+            this.ticks.increment();
+        }
+        catch(RuntimeException e) {
+            this.failed.increment();
+            this.close(s);
+        }
+    }
+    void close(Session s) {
+        if(this.sessions.remove(s.id) == null) {
+            return;
+        }
+        s.future.cancel(false);
+        this.closed.increment();
+        for(ISessionListener listener: s.listeners) {
+            listener.onClose(s.id);
+        }
+        for(ISessionListener listener: s.joining) {
+            listener.onClose(s.id);
+        }
+    }
+    // closes the sessions nobody has pressed a key in for the idle time
+    int evictIdle(long now) {
+        int evicted = 0;
+        for(Session s: this.sessions.values()) {
+            if(now - s.lastInput > this.idleNanos) {
+                this.close(s);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+    int activeSessions() {
+        return this.sessions.size();
+    }
+    double meanLagMillis() {
+        long n = this.ticks.sum();
+        return n == 0 ? 0 : this.lagNanos.sum() / 1e6 / n;
+    }
+    long bytesPerSession() {
+        long n = this.opened.sum();
+        return n == 0 ? 0 : this.openBytes.sum() / n;
+    }
+    void shutdown() {
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    public String toString() {
+        return String.format("%d sessions, %d ticks, lag mean %.2f ms max %.2f ms, %d KB/session, %d failed",
+                this.activeSessions(), this.ticks.sum(), this.meanLagMillis(),
+                this.maxLagNanos.get() / 1e6, this.bytesPerSession() / 1024, this.failed.sum());
+    }
 }
+// A client in the same process, for tests: keeps its own copy of the game,
+// made from the first snapshot and kept up to date from the diffs after it
+class LocalClient implements ISessionListener {
+    ForbiddenIslandWorld mirror;
+    int diffs;
+    int snapshots;
+    volatile boolean closed;
+    public void onDiff(StateDiff diff) {
+        this.diffs++;
+        if(diff.snapshot != null) {
+            this.mirror = GameSnapshot.decode(diff.snapshot.duplicate());
+            this.snapshots++;
+            return;
+        }
+        for(int cell: diff.flooded) {
+            this.mirror.board.cells[cell].isFlooded = true;
+        }
+        for(int i = 0; i < diff.moved.length; i += 2) {
+            this.mirror.players.get(diff.moved[i]).posn = this.mirror.board.cells[diff.moved[i + 1]];
+        }
+        for(int i = 0; i < diff.collected.length; i += 2) {
+            Player p = this.mirror.players.get(diff.collected[i]);
+            this.mirror.pickups.collect(this.mirror.board.cells[diff.collected[i + 1]], p.inventory);
+        }
+        for(int i = 0; i < diff.status.length; i += 3) {
+            Player p = this.mirror.players.get(diff.status[i]);
+            p.status = diff.status[i + 1];
+            p.score = diff.status[i + 2];
+        }
+        this.mirror.tick = diff.tick;
+        this.mirror.waterHeight = diff.waterHeight;
+        this.mirror.gameOver = diff.gameOver;
+        this.mirror.score = diff.score;
+    }
+    public void onClose(long session) {
+        this.closed = true;
+    }
+}
+// Saves a game as little-endian binary: a header, the heights of the board in
+// row-major order, a bitset of its flooded cells, where the helicopter, the
+// pieces and the players are, and the world's counters. The random streams
+// are not saved; they are remade from the seed and the number of boards drawn
+// from it, which is all that later boards and spawns depend on.
+class GameSnapshot {
+    // "FISL"
+    static final int MAGIC = 0x4649534c;
+    static final int VERSION = 1;
+    static ByteBuffer encode(ForbiddenIslandWorld w) {
+        Board board = w.board;
+        int n = board.size();
+        long[] flooded = new long[(n + 63) / 64];
+        for(int i = 0; i < n; i++) {
+            if(board.cells[i].isFlooded) {
+                flooded[i >> 6] |= 1L << i;
+            }
+        }
+        // header, heights, flooded cells, helicopter, pieces, players
+        int bytes = 4 * 13 + 8 + 8 * n + 8 * flooded.length + 4
+                + 4 + 4 * w.pickups.size() + 4 + 16 * w.players.size();
+        ByteBuffer out = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(w.random.seed);
+        out.putInt(w.random.generation);
+        out.putInt(w.islandSize);
+        out.putInt(w.playerCount);
+        out.putInt(board.width);
+        out.putInt(board.height);
+        out.putInt(w.waterHeight);
+        out.putInt(w.count);
+        out.putInt(w.tick);
+        out.putInt(w.gameOver);
+        out.putInt(w.score);
+        out.putInt(w.pause ? 1 : 0);
+        out.asDoubleBuffer().put(board.heights);
+        out.position(out.position() + 8 * n);
+        out.asLongBuffer().put(flooded);
+        out.position(out.position() + 8 * flooded.length);
+        out.putInt(board.indexOf(w.copter.posn));
+        out.putInt(w.pickups.size());
+        for(Piece p: w.pickups) {
+            out.putInt(board.indexOf(p.posn));
+        }
+        out.putInt(w.players.size());
+        for(Player p: w.players) {
+            out.putInt(board.indexOf(p.posn));
+            out.putInt(p.status);
+            out.putInt(p.score);
+            out.putInt(p.inventory.size());
+        }
+        out.flip();
+        return out;
+    }
+    static ForbiddenIslandWorld decode(ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        if(in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a saved game");
+        }
+        int version = in.getInt();
+        if(version != VERSION) {
+            throw new IllegalArgumentException("unknown saved game version " + version);
+        }
+        long seed = in.getLong();
+        int generation = in.getInt();
+        int islandSize = in.getInt();
+        int playerCount = in.getInt();
+        int width = in.getInt();
+        int height = in.getInt();
+        int waterHeight = in.getInt();
+        int count = in.getInt();
+        int tick = in.getInt();
+        int gameOver = in.getInt();
+        int score = in.getInt();
+        boolean pause = in.getInt() != 0;
+        int n = width * height;
+        double[] heights = new double[n];
+        in.asDoubleBuffer().get(heights);
+        in.position(in.position() + 8 * n);
+        long[] flooded = new long[(n + 63) / 64];
+        in.asLongBuffer().get(flooded);
+        in.position(in.position() + 8 * flooded.length);
+        Board board = new Board(width, height, heights, false);
+        for(int i = 0; i < n; i++) {
+            if((flooded[i >> 6] & (1L << i)) != 0) {
+                board.cells[i].isFlooded = true;
+            }
+        }
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld(board,
+                GameRandom.atBoard(seed, generation), islandSize, playerCount);
+        w.waterHeight = waterHeight;
+        w.count = count;
+        w.tick = tick;
+        w.gameOver = gameOver;
+        w.score = score;
+        w.pause = pause;
+        w.copter = new Helicopter(board.cells[in.getInt()]);
+        w.spawns.occupy(w.copter.posn);
+        w.pickups.land(w.copter);
+        int pieces = in.getInt();
+        for(int i = 0; i < pieces; i++) {
+            Piece p = new Piece(board.cells[in.getInt()]);
+            w.spawns.occupy(p.posn);
+            w.pickups.add(p);
+        }
+        int players = in.getInt();
+        for(int i = 0; i < players; i++) {
+            Player p = new Player(i, board.cells[in.getInt()]);
+            p.status = in.getInt();
+            p.score = in.getInt();
+            int carried = in.getInt();
+            for(int j = 0; j < carried; j++) {
+                p.inventory.add(new Piece(p.posn));
+            }
+            if(p.status != 1) {
+                w.spawns.occupy(p.posn);
+            }
+            w.players.add(p);
+        }
+        return w;
+    }
+    static void save(ForbiddenIslandWorld w, Path path) throws IOException {
+        ByteBuffer buffer = GameSnapshot.encode(w);
+        try(FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+    // reads the game straight out of the mapped file
+    static ForbiddenIslandWorld load(Path path) throws IOException {
+        try(FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return GameSnapshot.decode(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+        }
+    }
+}
+// A key as it was applied, with the tick of the world just before it was
+class LoggedInput {
+    int tick;
+    int player;
+    String key;
+    LoggedInput(int tick, int player, String key) {
+        this.tick = tick;
+        this.player = player;
+        this.key = key;
+    }
+}
+// An append-only log of applied keys. Each entry is the tick (int), the player
+// (int), the length of the key (unsigned byte) and the key in ASCII, little-endian,
+// gathered in a buffer and written through a channel opened for appending.
+class InputLog implements AutoCloseable {
+    FileChannel out;
+    ByteBuffer buffer;
+    InputLog(Path path) throws IOException {
+        this.out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    // called from the tick, which cannot throw an IOException
+    void append(int tick, PlayerInput in) {
+        byte[] key = in.key.getBytes(StandardCharsets.US_ASCII);
+        if(key.length > 255) {
+            throw new IllegalArgumentException("key is too long to log: " + in.key);
+        }
+        if(this.buffer.remaining() < 9 + key.length) {
+            this.flush();
+        }
+        this.buffer.putInt(tick);
+        this.buffer.putInt(in.player);
+        this.buffer.put((byte) key.length);
+        this.buffer.put(key);
+    }
+    void flush() {
+        this.buffer.flip();
+        try {
+            while(this.buffer.hasRemaining()) {
+                this.out.write(this.buffer);
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.buffer.clear();
+    }
+    public void close() throws IOException {
+        this.flush();
+        this.out.close();
+    }
+    static ArrayList<LoggedInput> read(Path path) throws IOException {
+        ArrayList<LoggedInput> log = new ArrayList<LoggedInput>();
+        try(FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.remaining() >= 9) {
+                int tick = buffer.getInt();
+                int player = buffer.getInt();
+                byte[] key = new byte[buffer.get() & 0xff];
+                buffer.get(key);
+                log.add(new LoggedInput(tick, player, new String(key, StandardCharsets.US_ASCII)));
+            }
+        }
+        return log;
+    }
+}
+// Plays a saved game forward through its logged keys, applying each key when
+// the world reaches the tick it was logged at and running ticks in between as
+// fast as they go, with nothing drawn
+class Replay {
+    static ForbiddenIslandWorld run(Path snapshot, Path keys, int untilTick) throws IOException {
+        return Replay.run(GameSnapshot.load(snapshot), InputLog.read(keys), untilTick);
+    }
+    // stops once every key is applied and the world is at the given tick, or
+    // when the world is paused or over with no key left to move it on. A log
+    // with an "f" reset is refused, since the saved game has no heightmap to
+    // make its board from.
+    static ForbiddenIslandWorld run(ForbiddenIslandWorld w, ArrayList<LoggedInput> log, int untilTick) {
+        for(LoggedInput in: log) {
+            if(in.key.equals("f") && w.heightmap == null) {
+                throw new IllegalArgumentException("cannot replay a heightmap reset at tick " + in.tick);
+            }
+        }
+        int next = 0;
+        while(true) {
+            while(next < log.size() && log.get(next).tick == w.tick) {
+                LoggedInput in = log.get(next);
+                w.apply(new PlayerInput(in.player, in.key, 0));
+                next++;
+            }
+            if(next == log.size() && w.tick >= untilTick) {
+                return w;
+            }
+            int before = w.tick;
+            w.advance();
+            if(w.tick == before && (next == log.size() || log.get(next).tick != w.tick)) {
+                return w;
+            }
+        }
+    }
+}
+// How many bytes the current thread has allocated so far, for measuring what a
+// piece of work allocates; -1 if the JVM cannot tell
+class Allocation {
+    // looked up once, since looking it up allocates
+    static final java.lang.management.ThreadMXBean BEAN =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+    static long bytes() {
+        if(BEAN instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) BEAN).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
+// Counts values in buckets that grow with the value, eight to each power of
+// two, so percentiles are kept to within about 12% in a fixed, small array
+class LatencyHistogram {
+    static final int SUB_BITS = 3;
+    long[] counts;
+    long count;
+    long total;
+    long max;
+    LatencyHistogram() {
+        this.counts = new long[64 << SUB_BITS];
+    }
+    void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        this.counts[LatencyHistogram.bucketOf(value)]++;
+        this.count++;
+        this.total += value;
+        if(value > this.max) {
+            this.max = value;
+        }
+    }
+    static int bucketOf(long value) {
+        if(value < (1 << SUB_BITS)) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+    // the largest value that falls in the given bucket
+    static long highestIn(int bucket) {
+        if(bucket < (1 << SUB_BITS)) {
+            return bucket;
+        }
+        int exp = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        return (1L << exp) + (bucket & ((1 << SUB_BITS) - 1)) * width + width - 1;
+    }
+    // the value that the given fraction of recorded values are at or under
+    long percentile(double fraction) {
+        if(this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * this.count));
+        long seen = 0;
+        for(int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if(seen >= rank) {
+                return Math.min(LatencyHistogram.highestIn(i), this.max);
+            }
+        }
+        return this.max;
+    }
+    double mean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+}
+// Times the phases of onTick and of makeImage, with the bytes each allocates,
+// and counts the ticks and frames that take longer than the bigBang tick rate.
+// A world without one pays only a null check per tick and frame.
+class TickProfiler {
+    static final int TICK = 0;
+    static final int COLLISIONS = 1;
+    static final int FLOODING = 2;
+    static final int END = 3;
+    static final int IMAGE = 4;
+    static final int INPUT = 5;
+    static final String[] PHASES = {"tick", "collisions", "flooding", "end", "image", "input"};
+    // the .15 second tick that the game is played at
+    static final long TICK_RATE_NANOS = 150000000L;
+    LatencyHistogram[] nanos;
+    // bytes allocated in each phase so far, or negative if the JVM cannot tell
+    long[] bytes;
+    long[] startNanos;
+    long[] startBytes;
+    // cells put under water by each rise of the ocean
+    LatencyHistogram floodCells;
+    // how long keys waited between being queued and being applied
+    LatencyHistogram inputLatency;
+    // ticks or frames slower than the tick rate
+    int overruns;
+    TickProfiler() {
+        this.nanos = new LatencyHistogram[PHASES.length];
+        for(int i = 0; i < PHASES.length; i++) {
+            this.nanos[i] = new LatencyHistogram();
+        }
+        this.bytes = new long[PHASES.length];
+        this.startNanos = new long[PHASES.length];
+        this.startBytes = new long[PHASES.length];
+        this.floodCells = new LatencyHistogram();
+        this.inputLatency = new LatencyHistogram();
+    }
+    void begin(int phase) {
+        this.startBytes[phase] = Allocation.bytes();
+        this.startNanos[phase] = System.nanoTime();
+    }
+    void end(int phase) {
+        long elapsed = System.nanoTime() - this.startNanos[phase];
+        this.bytes[phase] += Allocation.bytes() - this.startBytes[phase];
+        this.nanos[phase].record(elapsed);
+        if((phase == TICK || phase == IMAGE) && elapsed > TICK_RATE_NANOS) {
+            this.overruns++;
+        }
+    }
+    // the timings of the phase with the given name
+    LatencyHistogram phase(String name) {
+        for(int i = 0; i < PHASES.length; i++) {
+            if(PHASES[i].equals(name)) {
+                return this.nanos[i];
+            }
+        }
+        throw new IllegalArgumentException("no such phase: " + name);
+    }
+    String summary(int phase) {
+        LatencyHistogram h = this.nanos[phase];
+        return String.format("%-10s p50 %6.2f p99 %6.2f max %6.2f ms  %d B/call", PHASES[phase],
+                h.percentile(.5) / 1e6, h.percentile(.99) / 1e6, h.max / 1e6,
+                h.count == 0 ? 0 : this.bytes[phase] / h.count);
+    }
+    ArrayList<String> lines() {
+        ArrayList<String> lines = new ArrayList<String>();
+        for(int i = 0; i < PHASES.length; i++) {
+            lines.add(this.summary(i));
+        }
+        lines.add(String.format("flood step cells p50 %d max %d", this.floodCells.percentile(.5),
+                this.floodCells.max));
+        lines.add(String.format("input wait p50 %6.2f p99 %6.2f ms", this.inputLatency.percentile(.5) / 1e6,
+                this.inputLatency.percentile(.99) / 1e6));
+        lines.add("overruns " + this.overruns);
+        return lines;
+    }
+    // draws the summary over the top of the given image
+    WorldImage overlay(WorldImage image, int centerX) {
+        int y = 12;
+        for(String line: this.lines()) {
+            image = image.overlayImages(new TextImage(new Posn(centerX, y), line, 12, 0, new Yellow()));
+            y += 14;
+        }
+        return image;
+    }
+    public String toString() {
+        return String.join("\n", this.lines());
+    }
+}
+// One operation to time, by name
+class Benchmark {
+    String name;
+    // run before each op without being timed or counted, or null
+    Runnable setup;
+    Runnable op;
+    // run once the timing is done, or null
+    Runnable done;
+    Benchmark(String name, Runnable op) {
+        this(name, null, op, null);
+    }
+    Benchmark(String name, Runnable setup, Runnable op, Runnable done) {
+        this.name = name;
+        this.setup = setup;
+        this.op = op;
+        this.done = done;
+    }
+}
+// What timing one benchmark found
+class BenchmarkResult {
+    String name;
+    long ops;
+    long nanos;
+    // bytes allocated by the measuring thread, or -1 if the JVM cannot tell
+    long bytes;
+    BenchmarkResult(String name, long ops, long nanos, long bytes) {
+        this.name = name;
+        this.ops = ops;
+        this.nanos = nanos;
+        this.bytes = bytes;
+    }
+    double opsPerSecond() {
+        return this.ops / (this.nanos / 1e9);
+    }
+    double microsPerOp() {
+        return this.nanos / 1e3 / this.ops;
+    }
+    double bytesPerOp() {
+        return this.bytes < 0 ? -1 : (double)this.bytes / this.ops;
+    }
+    public String toString() {
+        return String.format("%-28s %12.1f ops/s %12.2f us/op %14.0f B/op",
+                this.name, this.opsPerSecond(), this.microsPerOp(), this.bytesPerOp());
+    }
+}
+// A small benchmark harness in the spirit of JMH: each benchmark is warmed up,
+// then run for a fixed time while counting operations and the bytes its thread
+// allocates, so that performance changes can be compared before and after.
+// Usage: java Benchmarks [name filter] [seconds per benchmark]
+class Benchmarks {
+    static final int[] SIZES = {16, 32, 64, 128, 256};
+    // results are folded in here so the JIT cannot drop the work
+    static volatile int sink;
 
-
+    static ArrayList<Benchmark> all() {
+        ArrayList<Benchmark> all = new ArrayList<Benchmark>();
+        for(int size: SIZES) {
+            ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 1, size);
+            all.add(new Benchmark("board/ordered/" + size, () -> sink += w.makeOrderedBoard().size()));
+            all.add(new Benchmark("board/random/" + size, () -> sink += w.makeRandomBoard().size()));
+            all.add(new Benchmark("board/annoying/" + size, () -> sink += w.makeAnnoyingBoard().size()));
+            ForbiddenIslandWorld f = new ForbiddenIslandWorld("t", 1, size);
+            all.add(new Benchmark("flood/cycle/" + size, () -> sink += Benchmarks.floodCycle(f)));
+            PackedBoard packed = new PackedBoard(f.board);
+            long[] ocean = packed.flooded.clone();
+            all.add(new Benchmark("flood/packed-cycle/" + size, () -> {
+                packed.restore(ocean);
+                for(int water = 1; water <= 32; water++) {
+                    sink += packed.rise(water);
+                }
+            }));
+            // the same 512 pixel screen at two cells a pixel and at four
+            // pixels a cell, whatever the size of the board
+            FrameState state = new FrameState(f);
+            Camera far = new Camera(512, 512);
+            far.zoom = -1;
+            all.add(new Benchmark("render/camera-far/" + size, () -> sink += far.render(state).pinhole.x));
+            Camera near = new Camera(512, 512);
+            near.zoom = 2;
+            all.add(new Benchmark("render/camera-near/" + size, () -> sink += near.render(state).pinhole.x));
+        }
+        // the heights alone, at sizes too large to build cells for
+        for(int size: new int[] {256, 1024, 4096}) {
+            SplittableRandom random = new SplittableRandom(1);
+            all.add(new Benchmark("terrain/diamond-square/" + size, () -> {
+                DiamondSquare terrain = new DiamondSquare(size);
+                terrain.generate(random);
+                sink += (int) terrain.heightAt(size / 4, size / 4);
+            }));
+        }
+        for(String mode: new String[] {"m", "r", "t"}) {
+            ForbiddenIslandWorld w = new ForbiddenIslandWorld(mode, 1);
+            all.add(new Benchmark("reset/" + mode, () -> {
+                w.reset(mode);
+                sink += w.copter.posn.x;
+            }));
+        }
+        // late in a game, with most of the island under water
+        ForbiddenIslandWorld late = Benchmarks.playing("m");
+        while(late.waterHeight < 24) {
+            late.advance();
+        }
+        Piece piece = late.pickups.get(0);
+        all.add(new Benchmark("spawn/getRandomCell", () -> {
+            Cell c = piece.getRandomCell(late.spawns, late.random.pickups);
+            late.spawns.vacate(c);
+            sink += c.x;
+        }));
+        ForbiddenIslandWorld saved = Benchmarks.playing("t");
+        ByteBuffer snapshot = GameSnapshot.encode(saved);
+        all.add(new Benchmark("snapshot/encode", () -> sink += GameSnapshot.encode(saved).limit()));
+        all.add(new Benchmark("snapshot/decode", () -> sink += GameSnapshot.decode(snapshot.duplicate()).tick));
+        Session session = new Session(1, Benchmarks.playing("m"));
+        session.subscribe(new LocalClient());
+        all.add(new Benchmark("sessions/tick", () -> {
+            session.tick();
+            sink += session.ticks;
+        }));
+        ForbiddenIslandWorld routed = new ForbiddenIslandWorld("m", 0);
+        RouteFinder finder = new RouteFinder(routed);
+        Player pilot = routed.players.get(0);
+        all.add(new Benchmark("routes/cached", () -> sink += finder.route(pilot).steps()));
+        all.add(new Benchmark("routes/plan", () -> {
+            finder.fields.clear();
+            sink += finder.plan(pilot, 0).steps();
+        }));
+        ForbiddenIslandWorld frame = Benchmarks.playing("m");
+        all.add(new Benchmark("render/frame", () -> sink += frame.makeImage().pinhole.x));
+        // a frame after each rise of the water, played up to it untimed
+        ForbiddenIslandWorld rising = Benchmarks.playing("m");
+        all.add(new Benchmark("render/frame-rising", () -> {
+            Benchmarks.keepPlaying(rising);
+            for(int i = 0; i < RouteFinder.TICKS_PER_LEVEL; i++) {
+                rising.advance();
+            }
+        }, () -> sink += rising.makeImage().pinhole.x, null));
+        ForbiddenIslandWorld cells = Benchmarks.playing("m");
+        cells.rasterTerrain = false;
+        all.add(new Benchmark("render/frame-cells", () -> sink += cells.makeImage().pinhole.x));
+        // a tick through a fixed camera, then the same with frames being
+        // written by an encoder started on the first tick timed
+        ForbiddenIslandWorld ticked = Benchmarks.playing("m");
+        ticked.useCamera(640, 480);
+        all.add(new Benchmark("tick/step", () -> Benchmarks.keepPlaying(ticked), () -> {
+            ticked.step();
+            sink += ticked.tick;
+        }, null));
+        ForbiddenIslandWorld filmed = Benchmarks.playing("m");
+        filmed.useCamera(640, 480);
+        File frames = new File(System.getProperty("java.io.tmpdir"), "forbidden-island-frames");
+        all.add(new Benchmark("tick/step-recorded", () -> {
+            if(filmed.recorder == null) {
+                filmed.recordFrames(frames);
+            }
+            Benchmarks.keepPlaying(filmed);
+        }, () -> {
+            filmed.step();
+            sink += filmed.tick;
+        }, () -> {
+            FrameRecorder r = filmed.recorder;
+            filmed.stopRecordingFrames();
+            r.awaitWritten();
+        }));
+        return all;
+    }
+    // a world in the middle of a game, with a player that cannot drown
+    static ForbiddenIslandWorld playing(String mode) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld(mode, 1);
+        w.pause = false;
+        w.players.get(0).posn = w.copter.posn;
+        return w;
+    }
+    // starts a new game on an m board once the water has risen a way, as a
+    // setup, so that ticking goes on flooding cells rather than ending
+    static void keepPlaying(ForbiddenIslandWorld w) {
+        if(w.waterHeight < 16 && w.gameOver == 0) {
+            return;
+        }
+        w.reset("m");
+        w.players.get(0).posn = w.copter.posn;
+    }
+    // dries out the island and floods it again from the bottom to the top
+    static int floodCycle(ForbiddenIslandWorld w) {
+        for(Cell c: w.board) {
+            c.isFlooded = c instanceof OceanCell;
+        }
+        w.waterHeight = 0;
+        w.count = 0;
+        int top = w.floodMap.levelStart.length - 2;
+        while(w.waterHeight < top) {
+            w.adjustForFlooding();
+        }
+        return w.waterHeight;
+    }
+    static BenchmarkResult measure(Benchmark b, long warmupNanos, long measureNanos) {
+        long end = System.nanoTime() + warmupNanos;
+        while(System.nanoTime() < end) {
+            if(b.setup != null) {
+                b.setup.run();
+            }
+            b.op.run();
+        }
+        long ops = 0;
+        // the time and bytes taken by setups, which are left out
+        long setupNanos = 0;
+        long setupBytes = 0;
+        long bytes = Allocation.bytes();
+        long start = System.nanoTime();
+        end = start + measureNanos;
+        long now = start;
+        while(now < end) {
+            if(b.setup != null) {
+                long before = Allocation.bytes();
+                b.setup.run();
+                setupBytes += Allocation.bytes() - before;
+                long ready = System.nanoTime();
+                setupNanos += ready - now;
+                end += ready - now;
+            }
+            b.op.run();
+            ops++;
+            now = System.nanoTime();
+        }
+        long allocated = Allocation.bytes();
+        if(b.done != null) {
+            b.done.run();
+        }
+        return new BenchmarkResult(b.name, ops, now - start - setupNanos,
+                bytes < 0 ? -1 : allocated - bytes - setupBytes);
+    }
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        long nanos = (long)(seconds * 1e9);
+        for(Benchmark b: Benchmarks.all()) {
+            if(b.name.contains(filter)) {
+                System.out.println(Benchmarks.measure(b, nanos / 2, nanos));
+            }
+        }
+    }
+}
 class ExamplesForbiddenIsland {
     ForbiddenIslandWorld w1;
     
@@ -600,18 +4439,19 @@ class ExamplesForbiddenIsland {
     }*/
     void testOnKeyEvent(Tester t) {
         this.initRegMount();
-        Player p = this.w1.players;
+        Player p = this.w1.players.get(0);
         Cell posn = p.posn;
         Cell right = posn.right;
         Cell top = posn.top;
         w1.onKeyEvent("up");
-        Cell curTop = w1.players.posn;
+        w1.onTick();
+        Cell curTop = w1.players.get(0).posn;
         //t.checkExpect(top, curTop);
         
     }
     void testOnKeyTwo(Tester t) {
         this.initRegMount();
-        Player p = this.w1.players;
+        Player p = this.w1.players.get(0);
         Cell posn = p.posn;
         Cell right = posn.right;
         if(right.isFlooded) {
@@ -624,21 +4464,27 @@ class ExamplesForbiddenIsland {
             right = right.bottom;
         }
         w1.onKeyEvent("up");
-        Cell curr = w1.players.posn;
+        w1.onTick();
+        Cell curr = w1.players.get(0).posn;
         t.checkExpect(curr.x, top.x);
         t.checkExpect(curr.y, top.y);
         w1.onKeyEvent("down");
-        curr = w1.players.posn;
+        w1.onTick();
+        curr = w1.players.get(0).posn;
         t.checkExpect(posn.x, curr.x);
         t.checkExpect(posn.y, curr.y);
         w1.onKeyEvent("right");
-        curr = w1.players.posn;
+        w1.onTick();
+        curr = w1.players.get(0).posn;
         t.checkExpect(right.x, curr.x);
         t.checkExpect(right.y, curr.y);
         w1.onKeyEvent("p");
+        t.checkExpect(w1.pause, true);
+        w1.onTick();
         t.checkExpect(w1.pause, false);
         w1.onKeyEvent("m");
-        t.checkExpect(!w1.players.posn.equals(right));
+        w1.onTick();
+        t.checkExpect(!w1.players.get(0).posn.equals(right));
     }
     void testSet(Tester t) {
         Cell mid = new Cell(1, 1, 1, null, null, null, null, false);
@@ -671,6 +4517,1115 @@ class ExamplesForbiddenIsland {
         t.checkExpect(w1.convertHelper(board), conv);
         
     }
+    void testBoard(Tester t) {
+        double[] given = {-2, 1, 2, 3, 4, 0};
+        Board b = new Board(3, 2, given);
+        t.checkExpect(given[0], -2.0);
+        t.checkExpect(b.heights[0], 0.0);
+        t.checkExpect(b.size(), 6);
+        t.checkExpect(b.cellAt(1, 1).height, 4.0);
+        t.checkExpect(b.get(4), b.cellAt(1, 1));
+        t.checkExpect(b.indexOf(b.cellAt(2, 0)), 2);
+        t.checkExpect(b.get(0) instanceof OceanCell, true);
+        t.checkExpect(b.get(5).isFlooded, true);
+        t.checkExpect(b.cellAt(1, 0).left == b.get(0), true);
+        t.checkExpect(b.cellAt(1, 0).bottom == b.get(4), true);
+        t.checkExpect(b.cellAt(1, 0).top == b.cellAt(1, 0), true);
+        t.checkExpect(b.cellAt(2, 1).right == b.cellAt(2, 1), true);
+        int count = 0;
+        for(Cell c: b) {
+            t.checkExpect(b.get(count) == c, true);
+            count++;
+        }
+        t.checkExpect(count, 6);
+        // a board may keep the array it is given instead
+        Board kept = new Board(3, 2, given, false);
+        t.checkExpect(kept.heights == given, true);
+        t.checkExpect(given[0], 0.0);
+        t.checkExpect(kept.get(0) instanceof OceanCell, true);
+        this.initRegMount();
+        t.checkExpect(w1.board.size(), (ForbiddenIslandWorld.ISLAND_SIZE + 1) * (ForbiddenIslandWorld.ISLAND_SIZE + 1));
+        t.checkExpect(w1.board.cellAt(32, 32).height, 32.0);
+    }
+    void testFloodEngine(Tester t) {
+        this.initRandMount(t);
+        Board byCell = new Board(w1.board.width, w1.board.height, w1.board.heights.clone());
+        FloodEngine engine = new FloodEngine(w1.board);
+        for(int water = 1; water <= 32; water++) {
+            engine.rise(water);
+            for(Cell c: byCell) {
+                c.adjustForFlooding(water);
+            }
+            boolean same = true;
+            for(int i = 0; i < byCell.size(); i++) {
+                same = same && byCell.get(i).isFlooded == w1.board.get(i).isFlooded;
+            }
+            t.checkExpect(same, true);
+        }
+        Board flat = new Board(3, 3, new double[] {0, 0, 0, 0, 5, 0, 0, 0, 0});
+        FloodEngine small = new FloodEngine(flat);
+        t.checkExpect(small.frontier.size(), 1);
+        t.checkExpect(small.rise(4), 0);
+        t.checkExpect(small.rise(5), 1);
+        t.checkExpect(small.newlyFlooded.get(0), flat.cellAt(1, 1));
+        t.checkExpect(small.frontier.size(), 0);
+    }
+    void testFloodMap(Tester t) {
+        this.initAnnoyingMount(t);
+        Board copy = new Board(w1.board.width, w1.board.height, w1.board.heights.clone());
+        FloodEngine engine = new FloodEngine(copy);
+        FloodMap map = w1.floodMap;
+        for(int water = 1; water <= 40; water++) {
+            engine.rise(water);
+            w1.waterHeight = water - 1;
+            w1.count = 9;
+            w1.adjustForFlooding();
+            boolean same = true;
+            for(int i = 0; i < copy.size(); i++) {
+                same = same && copy.get(i).isFlooded == map.isFloodedAt(map.board.get(i), water)
+                        && copy.get(i).isFlooded == w1.board.get(i).isFlooded;
+            }
+            t.checkExpect(same, true);
+            t.checkExpect(map.cellsFloodingAt(water).size(), engine.newlyFlooded.size());
+        }
+        Board walled = new Board(5, 1, new double[] {0, 3, 1, 2.5, 7});
+        FloodMap small = new FloodMap(walled);
+        t.checkExpect(small.floodHeightOf(walled.get(0)), 0);
+        t.checkExpect(small.floodHeightOf(walled.get(1)), 3);
+        t.checkExpect(small.floodHeightOf(walled.get(2)), 3);
+        t.checkExpect(small.floodHeightOf(walled.get(3)), 3);
+        t.checkExpect(small.floodHeightOf(walled.get(4)), 7);
+        t.checkExpect(small.cellsFloodingAt(3).size(), 3);
+        t.checkExpect(small.cellsFloodingAt(4).size(), 0);
+        t.checkExpect(small.cellsFloodingAt(99).size(), 0);
+        FloodMap dry = new FloodMap(new Board(2, 1, new double[] {1, 2}));
+        t.checkExpect(dry.floodHeight[0], FloodMap.NEVER);
+    }
+    void testTerrainRaster(Tester t) {
+        Board b = new Board(3, 1, new double[] {0, 5, 100});
+        TerrainRaster r = new TerrainRaster(b);
+        r.update(0);
+        t.checkExpect(r.repainted, 3);
+        t.checkExpect(r.image.getRGB(1, 0), b.get(1).colorAt(0).getRGB());
+        r.update(0);
+        t.checkExpect(r.repainted, 0);
+        r.update(1);
+        t.checkExpect(r.repainted, 2);
+        t.checkExpect(r.image.getRGB(1, 0), b.get(1).colorAt(1).getRGB());
+        t.checkExpect(r.image.getRGB(2, 0), b.get(2).colorAt(1).getRGB());
+        this.initRegMount();
+        w1.pause = false;
+        w1.players.get(0).posn = w1.copter.posn;
+        for(int i = 0; i < 50; i++) {
+            w1.onTick();
+        }
+        w1.makeImage();
+        boolean same = true;
+        for(Cell c: w1.board) {
+            same = same && w1.raster.image.getRGB(c.x, c.y) == c.colorAt(w1.waterHeight).getRGB();
+        }
+        t.checkExpect(same, true);
+        t.checkExpect(w1.raster.render(8).getWidth(), 8 * (ForbiddenIslandWorld.ISLAND_SIZE + 1));
+    }
+    void testCellPalette(Tester t) {
+        boolean same = true;
+        for(double height = 0.25; height < 70; height += 0.375) {
+            for(int water = 0; water < 70; water += 3) {
+                Color land;
+                if(height > water) {
+                    land = new Color((int)(Math.min(height - water, 32) * 8 - 1), 255,
+                            (int)(Math.min(height - water, 32) * 8 - 1));
+                }
+                else {
+                    land = new Color(((int)(Math.min((Math.min(water - height, 11) * 16 + 64), 255))),
+                            (Math.min(255 - (int)(Math.min(water - height, 31) * 8 + 1), 64)), 0);
+                }
+                Color sea = new Color(0, 0, (int)(255 - (Math.min(height, 31) * 8)));
+                same = same && land.equals(CellPalette.colorOf(false, height, water))
+                        && sea.equals(CellPalette.colorOf(true, height, water));
+            }
+        }
+        t.checkExpect(same, true);
+        Cell c = new Cell(10, 2, 3, null, null, null, null, false);
+        RectangleImage first = c.renderCell(0);
+        long hits = CellPalette.hits.sum();
+        t.checkExpect(c.renderCell(0) == first, true);
+        t.checkExpect(CellPalette.hits.sum(), hits + 1);
+        t.checkExpect(c.renderCell(1) == first, false);
+        t.checkExpect(CellPalette.hitRate() > 0, true);
+        OceanCell o = new OceanCell(0, 1, 1, null, null, null, null);
+        t.checkExpect(o.renderCell().color.equals(new Blue().thisColor()), true);
+    }
+    void testHeadlessGame(Tester t) {
+        ForbiddenIslandWorld a = new ForbiddenIslandWorld("t", 42);
+        ForbiddenIslandWorld b = new ForbiddenIslandWorld("t", 42);
+        t.checkExpect(Arrays.equals(a.board.heights, b.board.heights), true);
+        t.checkExpect(a.board.indexOf(a.players.get(0).posn), b.board.indexOf(b.players.get(0).posn));
+        HeadlessGame g = new HeadlessGame("m", 7, new ScriptedAgent("up", null, "left"));
+        GameResult r = g.play(5);
+        t.checkExpect(r.ticks, 5);
+        t.checkExpect(g.world.count, 5);
+        GameResult drowned = new HeadlessGame("m", 7, new ScriptedAgent()).play(100000);
+        t.checkExpect(drowned.gameOver, -1);
+        t.checkExpect(drowned.ticks < 400, true);
+        BatchResult batch = BatchRunner.run("r", 100, 40, new RandomWalkMaker(), 1000);
+        t.checkExpect(batch.games, 40);
+        t.checkExpect(batch.wins + batch.losses, 40);
+        BatchResult again = BatchRunner.run("r", 100, 40, new RandomWalkMaker(), 1000);
+        t.checkExpect(again.wins, batch.wins);
+        t.checkExpect(again.totalScore, batch.totalScore);
+    }
+    void testBenchmarks(Tester t) {
+        ForbiddenIslandWorld small = new ForbiddenIslandWorld("t", 3, 16);
+        t.checkExpect(small.board.width, 17);
+        t.checkExpect(small.makeOrderedBoard().cellAt(8, 8).height, 8.0);
+        t.checkExpect(Benchmarks.floodCycle(small), small.floodMap.levelStart.length - 2);
+        boolean drowned = true;
+        for(Cell c: small.board) {
+            drowned = drowned && (c.isFlooded || small.floodMap.floodHeightOf(c) == FloodMap.NEVER);
+        }
+        t.checkExpect(drowned, true);
+        Benchmark b = new Benchmark("reset", () -> small.reset("r"));
+        BenchmarkResult r = Benchmarks.measure(b, 1000000, 5000000);
+        t.checkExpect(r.ops > 0, true);
+        t.checkExpect(r.bytesPerOp() != 0, true);
+        // a setup is neither timed nor counted as allocating
+        Benchmark setup = new Benchmark("setup", () -> small.reset("r"), () -> Benchmarks.sink++, null);
+        BenchmarkResult untimed = Benchmarks.measure(setup, 1000000, 5000000);
+        t.checkExpect(untimed.ops > 0, true);
+        t.checkExpect(untimed.nanos < untimed.ops * 100000L, true);
+        t.checkExpect(untimed.bytes <= 0, true);
+        // a game kept playing starts again once the water is up
+        ForbiddenIslandWorld kept = Benchmarks.playing("m");
+        while(kept.waterHeight < 16) {
+            kept.advance();
+        }
+        Benchmarks.keepPlaying(kept);
+        t.checkExpect(kept.waterHeight, 0);
+        t.checkExpect(kept.gameOver, 0);
+        t.checkExpect(kept.players.get(0).posn == kept.copter.posn, true);
+    }
+    void testGameRandom(Tester t) {
+        ForbiddenIslandWorld a = new ForbiddenIslandWorld("r", 99);
+        ForbiddenIslandWorld b = new ForbiddenIslandWorld("r", 99);
+        ForbiddenIslandWorld c = new ForbiddenIslandWorld("r", 100);
+        t.checkExpect(Arrays.equals(a.board.heights, b.board.heights), true);
+        t.checkExpect(Arrays.equals(a.board.heights, c.board.heights), false);
+        a.reset("t");
+        b.reset("t");
+        t.checkExpect(Arrays.equals(a.board.heights, b.board.heights), true);
+        t.checkExpect(a.board.indexOf(a.players.get(0).posn), b.board.indexOf(b.players.get(0).posn));
+        for(int i = 0; i < 4; i++) {
+            t.checkExpect(a.board.indexOf(a.pickups.get(i).posn), b.board.indexOf(b.pickups.get(i).posn));
+        }
+        t.checkExpect(a.random.generation, 2);
+        GameRandom r1 = new GameRandom(5);
+        GameRandom r2 = new GameRandom(5);
+        r1.nextBoard();
+        r2.nextBoard();
+        r1.terrain.nextLong();
+        t.checkExpect(r1.pickups.nextLong(), r2.pickups.nextLong());
+        t.checkExpect(r1.spawn.nextLong(), r2.spawn.nextLong());
+    }
+    void testDiamondSquare(Tester t) {
+        DiamondSquare a = new DiamondSquare(128);
+        DiamondSquare b = new DiamondSquare(128);
+        a.generate(new SplittableRandom(7));
+        b.generate(new SplittableRandom(7));
+        t.checkExpect(Arrays.equals(a.heights, b.heights), true);
+        t.checkExpect(a.heights.length, 129 * 129);
+        t.checkExpect(a.heightAt(64, 64), 32.0);
+        t.checkExpect(a.heightAt(64, 0), 1.0);
+        t.checkExpect(a.heightAt(0, 64), 1.0);
+        // every interior midpoint of the last level has been raised
+        t.checkExpect(a.heightAt(1, 1) != 0, true);
+        t.checkExpect(a.heightAt(127, 127) != 0, true);
+        t.checkConstructorException(new IllegalArgumentException("island size must be a power of two: 48"),
+                "DiamondSquare", 48);
+        this.initAnnoyingMount(t);
+        t.checkExpect(w1.board.width, ForbiddenIslandWorld.ISLAND_SIZE + 1);
+        t.checkExpect(w1.board.cellAt(32, 32).height, 32.0);
+    }
+    void testTickProfiler(Tester t) {
+        LatencyHistogram h = new LatencyHistogram();
+        for(int i = 1; i <= 100; i++) {
+            h.record(i * 1000);
+        }
+        t.checkExpect(h.count, 100L);
+        t.checkExpect(h.max, 100000L);
+        t.checkExpect(Math.abs(h.percentile(.5) - 50000) <= 50000 / 8, true);
+        t.checkExpect(h.percentile(1), 100000L);
+        t.checkExpect(LatencyHistogram.highestIn(LatencyHistogram.bucketOf(17)), 17L);
+        t.checkExpect(LatencyHistogram.bucketOf(7), 7);
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 4);
+        w.pause = false;
+        w.players.get(0).posn = w.copter.posn;
+        w.onKeyEvent("h");
+        w.applyInputs();
+        for(int i = 0; i < 30; i++) {
+            w.onTick();
+        }
+        w.makeImage();
+        t.checkExpect(w.profiler.phase("tick").count, 30L);
+        t.checkExpect(w.profiler.phase("collisions").count, 30L);
+        t.checkExpect(w.profiler.phase("image").count, 1L);
+        t.checkExpect(w.profiler.floodCells.count, 3L);
+        t.checkExpect(w.profiler.floodCells.total,
+                (long) w.floodMap.levelStart[4] - w.floodMap.levelStart[1]);
+        t.checkExpect(w.profiler.lines().size(), 9);
+        w.onKeyEvent("h");
+        w.onTick();
+        t.checkExpect(w.profiler, null);
+    }
+    void testSpawnIndex(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 8);
+        int dry = 0;
+        Cell top = w.board.get(0);
+        for(Cell c: w.board) {
+            if(!c.isFlooded) {
+                dry++;
+            }
+            if(c.height > top.height) {
+                top = c;
+            }
+        }
+        // the helicopter, the player and four pieces each stand on their own cell
+        t.checkExpect(w.spawns.size, dry - 6);
+        t.checkExpect(w.copter.posn == top, true);
+        HashSet<Cell> taken = new HashSet<Cell>();
+        taken.add(w.copter.posn);
+        taken.add(w.players.get(0).posn);
+        for(Piece p: w.pickups) {
+            taken.add(p.posn);
+        }
+        t.checkExpect(taken.size(), 6);
+        t.checkExpect(w.spawns.isFree(w.players.get(0).posn), false);
+        // a board with a single dry cell gives that cell until it is taken
+        double[] heights = new double[25];
+        heights[12] = 3;
+        SpawnIndex one = new SpawnIndex(new Board(5, 5, heights));
+        Cell only = one.take(new SplittableRandom(1));
+        t.checkExpect(only.height, 3.0);
+        t.checkExpect(one.size, 0);
+        String message = "";
+        try {
+            one.take(new SplittableRandom(1));
+        }
+        catch(RuntimeException e) {
+            message = e.getMessage();
+        }
+        t.checkExpect(message, "no dry cell left to spawn on");
+        one.vacate(only);
+        t.checkExpect(one.take(new SplittableRandom(2)) == only, true);
+        // flooding takes cells out and moves the highest cell down
+        w.waterHeight = 32;
+        for(Cell c: w.floodMap.cellsFloodingAt(32)) {
+            c.isFlooded = true;
+            w.spawns.flood(c);
+        }
+        t.checkExpect(w.spawns.highest().isFlooded, false);
+        t.checkExpect(w.spawns.highest().height < 32, true);
+        boolean allDry = true;
+        for(int i = 0; i < w.spawns.size; i++) {
+            allDry = allDry && !w.board.cells[w.spawns.free[i]].isFlooded;
+        }
+        t.checkExpect(allDry, true);
+    }
+    void testPickupIndex(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 12);
+        SplittableRandom rand = new SplittableRandom(3);
+        for(int i = 0; i < 200; i++) {
+            w.pickups.add(new Piece(w.spawns, rand));
+        }
+        t.checkExpect(w.pickups.size(), 204);
+        Piece target = w.pickups.get(100);
+        Piece last = w.pickups.get(203);
+        w.players.get(0).posn = target.posn;
+        w.checkForCollisions();
+        t.checkExpect(w.players.get(0).inventory.size(), 1);
+        t.checkExpect(w.players.get(0).inventory.get(0) == target, true);
+        t.checkExpect(w.pickups.size(), 203);
+        // the last piece fills the gap rather than the list shifting down
+        t.checkExpect(w.pickups.get(100) == last, true);
+        t.checkExpect(last.slot, 100);
+        t.checkExpect(w.pickups.top[w.board.indexOf(target.posn)], null);
+        t.checkExpect(w.spawns.isFree(target.posn), true);
+        w.checkForCollisions();
+        t.checkExpect(w.players.get(0).inventory.size(), 1);
+        // two pieces on one cell are collected together
+        Cell shared = w.pickups.get(0).posn;
+        Piece extra = new Piece(w.spawns, rand);
+        extra.posn = shared;
+        w.pickups.add(extra);
+        w.players.get(0).posn = shared;
+        w.checkForCollisions();
+        t.checkExpect(w.players.get(0).inventory.size(), 3);
+        t.checkExpect(w.pickups.size(), 202);
+        t.checkExpect(w.pickups.hasHelicopter(w.copter.posn), true);
+        t.checkExpect(w.pickups.hasHelicopter(shared), false);
+        w.players.get(0).posn = w.copter.posn;
+        w.endIfReady();
+        t.checkExpect(w.gameOver, 1);
+    }
+    void testMultiplayer(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 21, 64, 3);
+        t.checkExpect(w.players.size(), 3);
+        t.checkExpect(w.pickups.size(), 12);
+        t.checkExpect(w.players.get(2).id, 2);
+        // keys from many threads all arrive, and wait for the tick
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        ArrayList<Future<Integer>> sent = new ArrayList<Future<Integer>>();
+        for(int c = 0; c < 4; c++) {
+            final int player = c % 3;
+            sent.add(clients.submit(() -> {
+                int accepted = 0;
+                for(int i = 0; i < 100; i++) {
+                    accepted += w.press(player, "left") ? 1 : 0;
+                }
+                return accepted;
+            }));
+        }
+        int accepted = 0;
+        try {
+            for(Future<Integer> f: sent) {
+                accepted += f.get();
+            }
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        clients.shutdown();
+        t.checkExpect(accepted, 400);
+        t.checkExpect(w.inputs.size(), 400);
+        w.onTick();
+        t.checkExpect(w.inputs.size(), 400 - InputQueue.BATCH);
+        w.onTick();
+        t.checkExpect(w.inputs.size(), 0);
+        // past its capacity the queue drops keys instead of growing
+        for(int i = 0; i < InputQueue.CAPACITY + 10; i++) {
+            w.press(0, "up");
+        }
+        t.checkExpect(w.inputs.size(), InputQueue.CAPACITY);
+        t.checkExpect(w.inputs.dropped.sum(), 10L);
+        while(w.inputs.size() > 0) {
+            w.applyInputs();
+        }
+        // w, a, s and d move the second player
+        Player second = w.players.get(1);
+        second.posn = w.board.cellAt(32, 30);
+        w.onKeyEvent("d");
+        w.applyInputs();
+        t.checkExpect(second.posn == w.board.cellAt(33, 30), true);
+        // each player ends on their own; the game ends with the last of them
+        Player first = w.players.get(0);
+        for(int i = 0; i < 3; i++) {
+            first.inventory.add(w.pickups.get(0));
+        }
+        first.posn = w.copter.posn;
+        w.endIfReady();
+        t.checkExpect(first.status, 1);
+        t.checkExpect(first.score, 600 * 3);
+        t.checkExpect(w.gameOver, 0);
+        w.players.get(1).posn = w.board.cellAt(0, 0);
+        w.players.get(2).posn = w.board.cellAt(0, 0);
+        w.endIfReady();
+        t.checkExpect(w.players.get(2).status, -1);
+        t.checkExpect(w.gameOver, 1);
+        t.checkExpect(w.score, 600 * 3);
+    }
+    // the state a replay has to rebuild exactly, as one string
+    String stateOf(ForbiddenIslandWorld w) {
+        StringBuilder state = new StringBuilder();
+        state.append(w.tick + " " + w.waterHeight + " " + w.count + " " + w.gameOver + " "
+                + w.score + " " + w.pause + " " + w.board.indexOf(w.copter.posn) + " |");
+        for(Player p: w.players) {
+            state.append(" " + w.board.indexOf(p.posn) + "/" + p.status + "/" + p.inventory.size());
+        }
+        state.append(" |");
+        for(Piece p: w.pickups) {
+            state.append(" " + w.board.indexOf(p.posn));
+        }
+        state.append(" | " + Arrays.hashCode(w.board.heights) + " ");
+        for(Cell c: w.board) {
+            state.append(c.isFlooded ? '1' : '0');
+        }
+        return state.toString();
+    }
+    void testSnapshotAndReplay(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("r", 77, 64, 2);
+        w.onTick();
+        ForbiddenIslandWorld copy = GameSnapshot.decode(GameSnapshot.encode(w));
+        t.checkExpect(this.stateOf(copy), this.stateOf(w));
+        t.checkExpect(copy.random.generation, w.random.generation);
+        try {
+            Path snapshot = Files.createTempFile("island", ".snap");
+            Path keys = Files.createTempFile("island", ".keys");
+            w.record(snapshot, keys);
+            w.press(0, "p");
+            SplittableRandom rand = new SplittableRandom(5);
+            String[] moves = {"up", "down", "left", "right", "w", "a", "s", "d"};
+            for(int i = 0; i < 400; i++) {
+                if(rand.nextInt(3) == 0) {
+                    w.onKeyEvent(moves[rand.nextInt(moves.length)]);
+                }
+                if(i == 250) {
+                    w.onKeyEvent("t");
+                }
+                w.onTick();
+            }
+            w.stopRecording();
+            t.checkExpect(InputLog.read(keys).size() > 100, true);
+            ForbiddenIslandWorld replayed = Replay.run(snapshot, keys, w.tick);
+            t.checkExpect(this.stateOf(replayed), this.stateOf(w));
+            // any player id reads back as it was written
+            Path wide = Files.createTempFile("island", ".keys");
+            try(InputLog log = new InputLog(wide)) {
+                log.append(3, new PlayerInput(200, "up", 0));
+            }
+            LoggedInput read = InputLog.read(wide).get(0);
+            t.checkExpect(read.player, 200);
+            t.checkExpect(read.key, "up");
+            ArrayList<LoggedInput> heightmapReset = new ArrayList<LoggedInput>();
+            heightmapReset.add(new LoggedInput(0, 0, "f"));
+            String refused = "";
+            try {
+                Replay.run(GameSnapshot.load(snapshot), heightmapReset, 0);
+            }
+            catch(IllegalArgumentException e) {
+                refused = e.getMessage();
+            }
+            t.checkExpect(refused, "cannot replay a heightmap reset at tick 0");
+            Files.delete(snapshot);
+            Files.delete(keys);
+            Files.delete(wide);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer bad = ByteBuffer.allocate(8);
+        String message = "";
+        try {
+            GameSnapshot.decode(bad);
+        }
+        catch(IllegalArgumentException e) {
+            message = e.getMessage();
+        }
+        t.checkExpect(message, "not a saved game");
+    }
+    // writes a raw heightmap of the given format and its sidecar
+    Path writeHeightmap(String format, int width, int height, double[] heights) throws IOException {
+        Path raw = Files.createTempFile("island", ".raw");
+        boolean float32 = format.startsWith("float32");
+        ByteBuffer out = ByteBuffer.allocate(width * height * (float32 ? 4 : 2));
+        out.order(format.endsWith("le") ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        for(double h: heights) {
+            if(float32) {
+                out.putFloat((float) h);
+            }
+            else {
+                out.putShort((short) h);
+            }
+        }
+        Files.write(raw, out.array());
+        Files.write(raw.resolveSibling(raw.getFileName() + HeightmapFile.SIDECAR),
+                ("width=" + width + "\nheight=" + height + "\nformat=" + format + "\n").getBytes());
+        return raw;
+    }
+    void testHeightmapFile(Tester t) {
+        double[] heights = new double[40 * 30];
+        for(int i = 0; i < heights.length; i++) {
+            heights[i] = (i % 40) - 5 + (i / 40) * .5;
+        }
+        try {
+            for(String format: new String[] {"int16le", "int16be", "float32le", "float32be"}) {
+                Path raw = this.writeHeightmap(format, 40, 30, heights);
+                HeightmapFile map = new HeightmapFile(raw);
+                t.checkExpect(map.width, 40);
+                t.checkExpect(map.height, 30);
+                double expected = format.startsWith("float32") ? heights[3 * 40 + 7] : (short) heights[3 * 40 + 7];
+                t.checkExpect(map.heightAt(7, 3), expected);
+                Board board = map.toBoard();
+                t.checkExpect(board.size(), 1200);
+                t.checkExpect(board.heights[127], expected);
+                t.checkExpect(board.cellAt(0, 0) instanceof OceanCell, true);
+                t.checkExpect(board.cellAt(39, 0).height, 34.0);
+                Files.delete(raw.resolveSibling(raw.getFileName() + HeightmapFile.SIDECAR));
+                Files.delete(raw);
+            }
+            Path raw = this.writeHeightmap("float32le", 40, 30, heights);
+            ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 3, 16);
+            t.checkExpect(w.useHeightmap(raw) == w.heightmap, true);
+            w.onTick();
+            t.checkExpect(w.board.width, 17);
+            t.checkExpect(w.board.cellAt(16, 16).height, heights[29 * 40 + 39]);
+            t.checkExpect(w.board.cellAt(0, 0).isFlooded, true);
+            String notRecorded = "";
+            try {
+                w.record(raw.resolveSibling("unused.snap"), raw.resolveSibling("unused.keys"));
+            }
+            catch(IllegalStateException e) {
+                notRecorded = e.getMessage();
+            }
+            t.checkExpect(notRecorded, "cannot record a game that can reset from a heightmap");
+            t.checkExpect(Files.exists(raw.resolveSibling("unused.snap")), false);
+            Files.write(raw.resolveSibling(raw.getFileName() + HeightmapFile.SIDECAR),
+                    "width=400\nheight=30\nformat=float32le\n".getBytes());
+            String message = "";
+            try {
+                new HeightmapFile(raw);
+            }
+            catch(IllegalArgumentException e) {
+                message = e.getMessage();
+            }
+            t.checkExpect(message, "heightmap has 4800 bytes, expected 48000");
+            Files.delete(raw.resolveSibling(raw.getFileName() + HeightmapFile.SIDECAR));
+            Files.delete(raw);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    void testGameLoop(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 6);
+        w.pause = false;
+        w.players.get(0).posn = w.copter.posn;
+        GameLoop loop = new GameLoop(w, 1000);
+        loop.lastWake = 0;
+        // a long stall plays only MAX_CATCH_UP steps and drops the rest
+        loop.wake(10000);
+        t.checkExpect(loop.steps, (long) GameLoop.MAX_CATCH_UP);
+        t.checkExpect(loop.droppedSteps, 5L);
+        t.checkExpect(w.tick, GameLoop.MAX_CATCH_UP);
+        loop.wake(10500);
+        t.checkExpect(loop.steps, 5L);
+        loop.wake(11000);
+        t.checkExpect(loop.steps, 6L);
+        t.checkExpect(loop.latest.get().tick, 6);
+        // a frame is drawn from the published state, not the live world
+        FrameState state = loop.latest.get();
+        w.step();
+        t.checkExpect(state.tick, 6);
+        t.checkExpect(loop.frame().getWidth() > 0, true);
+        // javalib and the display thread each draw through their own raster
+        loop.frame(loop.pushed);
+        t.checkExpect(loop.pulled.raster != null && loop.pushed.raster != null, true);
+        t.checkExpect(loop.pulled.raster != loop.pushed.raster, true);
+        // while a slow display draws, the simulation keeps its pace and
+        // the states published meanwhile are skipped
+        ForbiddenIslandWorld live = new ForbiddenIslandWorld("m", 6);
+        live.pause = false;
+        live.players.get(0).posn = live.copter.posn;
+        GameLoop running = new GameLoop(live, 2000000, image -> {
+            try {
+                Thread.sleep(20);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+        live.onTick();
+        try {
+            Thread.sleep(300);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.stop();
+        t.checkExpect(live.loop, null);
+        t.checkExpect(running.steps + running.droppedSteps >= 60, true);
+        t.checkExpect(live.tick, (int) running.steps);
+        t.checkExpect(running.skipped > 0, true);
+        t.checkExpect(running.drawn > 0 && running.drawn < running.published, true);
+        // useLoop hands the world to a loop at the tick rate
+        GameLoop played = live.useLoop();
+        t.checkExpect(live.loop == played, true);
+        t.checkExpect(played.stepNanos, TickProfiler.TICK_RATE_NANOS);
+        live.useLoop();
+        t.checkExpect(played.simulation.isShutdown(), true);
+        live.loop.stop();
+        t.checkExpect(live.loop, null);
+    }
+    void testSessionServer(Tester t) {
+        SessionServer server = new SessionServer(2, 1000000, 60000000000L);
+        ArrayList<Session> sessions = new ArrayList<Session>();
+        ArrayList<LocalClient> clients = new ArrayList<LocalClient>();
+        for(int i = 0; i < 20; i++) {
+            LocalClient client = new LocalClient();
+            sessions.add(server.open("m", i, client));
+            clients.add(client);
+        }
+        t.checkExpect(server.activeSessions(), 20);
+        for(int i = 0; i < 40; i++) {
+            sessions.get(i % 20).press(0, Player.MOVES[i % 4]);
+        }
+        try {
+            Thread.sleep(200);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.shutdown();
+        t.checkExpect(server.ticks.sum() > 20, true);
+        t.checkExpect(server.failed.sum(), 0L);
+        t.checkExpect(server.bytesPerSession() > 0, true);
+        // every client rebuilt its session from one snapshot and the diffs
+        for(int i = 0; i < 20; i++) {
+            ForbiddenIslandWorld w = sessions.get(i).world;
+            ForbiddenIslandWorld mirror = clients.get(i).mirror;
+            t.checkExpect(clients.get(i).snapshots, 1);
+            t.checkExpect(mirror.tick, w.tick);
+            t.checkExpect(mirror.waterHeight, w.waterHeight);
+            t.checkExpect(mirror.players.get(0).posn == mirror.board.cells[w.board.indexOf(w.players.get(0).posn)], true);
+            t.checkExpect(mirror.players.get(0).status, w.players.get(0).status);
+            t.checkExpect(mirror.players.get(0).inventory.size(), w.players.get(0).inventory.size());
+            t.checkExpect(mirror.pickups.size(), w.pickups.size());
+            boolean same = true;
+            for(int c = 0; c < w.board.cells.length; c++) {
+                same = same && mirror.board.cells[c].isFlooded == w.board.cells[c].isFlooded;
+            }
+            t.checkExpect(same, true);
+        }
+        // a reset sends the whole game again
+        Session s = sessions.get(0);
+        s.world.apply(new PlayerInput(0, "r", 0));
+        s.tick();
+        t.checkExpect(clients.get(0).snapshots, 2);
+        // sessions nobody plays in are closed
+        t.checkExpect(server.evictIdle(System.nanoTime()), 0);
+        t.checkExpect(server.evictIdle(System.nanoTime() + 61000000000L), 20);
+        t.checkExpect(server.activeSessions(), 0);
+        t.checkExpect(clients.get(5).closed, true);
+        // pickups and escapes reach the mirror, and only a new listener is
+        // sent the whole game
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 3);
+        w.pause = false;
+        Session one = new Session(1, w);
+        LocalClient first = new LocalClient();
+        one.subscribe(first);
+        one.tick();
+        t.checkExpect(first.snapshots, 1);
+        Player p = w.players.get(0);
+        Cell piece = w.pickups.get(0).posn;
+        p.posn = piece;
+        one.tick();
+        t.checkExpect(first.snapshots, 1);
+        t.checkExpect(first.mirror.pickups.size(), w.pickups.size());
+        t.checkExpect(first.mirror.players.get(0).inventory.size(), p.inventory.size());
+        t.checkExpect(p.inventory.size() > 0, true);
+        LocalClient second = new LocalClient();
+        one.subscribe(second);
+        while(w.pickups.size() > 0) {
+            p.posn = w.pickups.get(0).posn;
+            one.tick();
+        }
+        p.posn = w.copter.posn;
+        one.tick();
+        t.checkExpect(p.status, 1);
+        t.checkExpect(first.snapshots, 1);
+        t.checkExpect(second.snapshots, 1);
+        for(LocalClient client: new LocalClient[] {first, second}) {
+            t.checkExpect(client.mirror.players.get(0).status, 1);
+            t.checkExpect(client.mirror.players.get(0).score, p.score);
+            t.checkExpect(client.mirror.players.get(0).inventory.size(), p.inventory.size());
+            t.checkExpect(client.mirror.pickups.size(), 0);
+            t.checkExpect(client.mirror.gameOver, w.gameOver);
+        }
+    }
+    void testAssets(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 6);
+        Piece piece = w.pickups.get(0);
+        // sprites come from the one atlas, at their natural size
+        t.checkExpect(((SpriteImage) piece.renderPiece()).sprite == Assets.PIECE, true);
+        t.checkExpect(((SpriteImage) w.copter.renderPiece()).sprite == Assets.HELICOPTER, true);
+        t.checkExpect(w.copter.renderPiece().getWidth(), 32);
+        t.checkExpect(piece.renderPiece().pinhole, new Posn(piece.posn.x * 8 + 4, piece.posn.y * 8 + 4));
+        t.checkExpect(new Player(5, piece.posn).renderPlayer().getWidth(), 16);
+        t.checkExpect(((SpriteImage) new Player(5, piece.posn).renderPlayer()).sprite == Assets.PLAYERS[1], true);
+        t.checkExpect(Assets.ATLAS.getRGB(Assets.PIECE.x + 4, 4), Color.MAGENTA.getRGB());
+        t.checkExpect(Assets.ATLAS.getRGB(Assets.PLAYERS[2].x + 8, 8), Player.COLORS[2].getRGB());
+        // a screen is composed once and then shown again as it is
+        w.pause = true;
+        t.checkExpect(w.makeImage() == w.makeImage(), true);
+        t.checkExpect(Assets.pauseScreen(64) == Assets.pauseScreen(64), true);
+        t.checkExpect(Assets.pauseScreen(64) == Assets.pauseScreen(32), false);
+        t.checkExpect(Assets.endScreen(64, -1, 10) == Assets.endScreen(64, -1, 11), true);
+        // a won game's score is drawn over the one kept screen, so that
+        // scores do not each keep a screen of their own
+        OverlayImages won = (OverlayImages) Assets.endScreen(64, 1, 10);
+        OverlayImages better = (OverlayImages) Assets.endScreen(64, 1, 11);
+        t.checkExpect(won.bot == better.bot, true);
+        t.checkExpect(((TextImage) better.top).text, "Score: 11");
+        t.checkExpect(won.bot == Assets.endScreen(64, -1, 10), false);
+        int kept = Assets.screens.size();
+        for(int score = 0; score < 100; score++) {
+            Assets.endScreen(64, 1, score);
+        }
+        t.checkExpect(Assets.screens.size(), kept);
+    }
+    void testConsLongLists(Tester t) {
+        // long lists neither overflow the stack when folded nor when indexed
+        IList<Integer> cons = new Empty<Integer>();
+        for(int i = 0; i < 100000; i++) {
+            cons = new Cons<Integer>(i, cons);
+        }
+        t.checkExpect(cons.foldr(0L, (item, sum) -> sum + item), 4999950000L);
+        t.checkExpect(cons.get(99999), 0);
+    }
+    void testPackedBoard(Tester t) {
+        // noise wide enough for runs to cross words, with the edges at sea
+        SplittableRandom random = new SplittableRandom(21);
+        double[] noise = new double[150 * 40];
+        for(int i = 0; i < noise.length; i++) {
+            int x = i % 150;
+            int y = i / 150;
+            noise[i] = x == 0 || y == 0 || x == 149 || y == 39 ? 0 : random.nextDouble() * 40;
+        }
+        ArrayList<Board> boards = new ArrayList<Board>();
+        boards.add(new ForbiddenIslandWorld("m", 3).board);
+        boards.add(new ForbiddenIslandWorld("r", 3).board);
+        boards.add(new ForbiddenIslandWorld("t", 3).board);
+        boards.add(new Board(150, 40, noise));
+        for(Board board: boards) {
+            Board copy = new Board(board.width, board.height, board.heights.clone());
+            FloodMap map = new FloodMap(copy);
+            PackedBoard packed = new PackedBoard(copy);
+            boolean same = true;
+            for(int water = 0; water <= 41; water++) {
+                int before = packed.floodedCount();
+                int newly = packed.rise(water);
+                for(Cell c: copy) {
+                    c.adjustForFlooding(water);
+                }
+                for(Cell c: copy) {
+                    same = same && packed.isFlooded(c.x, c.y) == c.isFlooded
+                            && c.isFlooded == map.isFloodedAt(c, water);
+                }
+                same = same && newly == packed.floodedCount() - before
+                        && (water == 0 || newly == map.cellsFloodingAt(water).size());
+            }
+            t.checkExpect(same, true);
+        }
+        // a wall keeps the water out until it is covered
+        PackedBoard walled = new PackedBoard(new Board(5, 1, new double[] {0, 3, 1, 2.5, 7}));
+        t.checkExpect(walled.rise(2), 0);
+        t.checkExpect(walled.rise(3), 3);
+        t.checkExpect(walled.isFlooded(2, 0), true);
+        t.checkExpect(walled.isFlooded(4, 0), false);
+        t.checkExpect(walled.levelAt(3, 0), 3);
+        t.checkExpect(walled.levelAt(4, 0), 7);
+        t.checkExpect(walled.planes.length, 3);
+        walled.restore(new long[] {1});
+        t.checkExpect(walled.floodedCount(), 1);
+        t.checkExpect(walled.rise(3), 3);
+        t.checkExpect(PackedBoard.fillUp(0b0111_0110L, 0b0000_0010L), 0b0000_0110L);
+        t.checkExpect(PackedBoard.fillUp(-1L, 1L), -1L);
+        t.checkExpect(new PackedBoard(boards.get(0)).bytes() < 10L * boards.get(0).size(), true);
+    }
+    void testRouteFinder(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 0);
+        w.pause = false;
+        RouteFinder finder = new RouteFinder(w);
+        Player p = w.players.get(0);
+        Route r = finder.route(p);
+        t.checkExpect(r != null, true);
+        t.checkExpect(r.cells[0], w.board.indexOf(p.posn));
+        t.checkExpect(r.cells[r.steps()], w.board.indexOf(w.copter.posn));
+        t.checkExpect(r.pieces >= RouteFinder.PIECES_NEEDED, true);
+        // one neighbouring cell a tick, each dry when it is reached
+        boolean walkable = true;
+        for(int i = 1; i < r.cells.length; i++) {
+            int dx = Math.abs(r.cells[i] % w.board.width - r.cells[i - 1] % w.board.width);
+            int dy = Math.abs(r.cells[i] / w.board.width - r.cells[i - 1] / w.board.width);
+            walkable = walkable && dx + dy == 1 && finder.isSafe(r.cells[i], r.start + i);
+        }
+        t.checkExpect(walkable, true);
+        // a route is planned once and then followed
+        t.checkExpect(finder.route(p) == r, true);
+        t.checkExpect(finder.hits, 1L);
+        String key = finder.nextKey(p);
+        w.onKeyEvent(key);
+        w.onTick();
+        t.checkExpect(w.board.indexOf(p.posn), r.cells[1]);
+        t.checkExpect(finder.route(p) == r, true);
+        t.checkExpect(finder.misses, 1L);
+        // a flood across the way ahead drops it, one behind does not
+        finder.flooded(Arrays.asList(w.board.cells[r.cells[0]]));
+        t.checkExpect(finder.routes.get(0) == r, true);
+        finder.flooded(Arrays.asList(w.board.cells[r.cells[5]]));
+        t.checkExpect(finder.routes.containsKey(0), false);
+        t.checkExpect(finder.route(p) != r, true);
+        // the hint shows the way still ahead
+        w.apply(new PlayerInput(0, "g", 0));
+        t.checkExpect(w.showRoute, true);
+        t.checkExpect(w.routeAhead().length, 0);
+        w.planRoutes();
+        t.checkExpect(w.routeAhead().length, w.routes.route(p).steps());
+        t.checkExpect(new FrameState(w).route.length, w.routeAhead().length);
+        // pieces that flood before anyone can reach them leave no way out
+        ForbiddenIslandWorld lost = new ForbiddenIslandWorld("m", 2);
+        RouteFinder none = new RouteFinder(lost);
+        t.checkExpect(none.route(lost.players.get(0)) == null, true);
+        lost.count = 5;
+        t.checkExpect(none.route(lost.players.get(0)) == null, true);
+        t.checkExpect(none.hits, 1L);
+        t.checkExpect(none.nextKey(lost.players.get(0)), null);
+        // the autopilot wins the games that can be won
+        t.checkExpect(new HeadlessGame("m", 0, new AutopilotAgent()).play(1000).gameOver, 1);
+        t.checkExpect(new HeadlessGame("t", 0, new AutopilotAgent()).play(1000).gameOver, 1);
+    }
+    // waits up to five seconds for the pool to have the given number of
+    // boards made
+    boolean awaitReady(BoardPool pool, int boards) {
+        long end = System.nanoTime() + 5000000000L;
+        while(pool.ready() < boards && System.nanoTime() < end) {
+            try {
+                Thread.sleep(5);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return pool.ready() >= boards;
+    }
+    void testBoardPool(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 5);
+        ForbiddenIslandWorld twin = new ForbiddenIslandWorld("m", 5);
+        BoardPool pool = w.usePool(1, 1L << 30);
+        t.checkExpect(this.awaitReady(pool, 3), true);
+        // a pooled reset plays the same game as one made on the spot
+        w.reset("r");
+        twin.reset("r");
+        t.checkExpect(pool.hits.sum(), 1L);
+        t.checkExpect(Arrays.equals(w.board.heights, twin.board.heights), true);
+        t.checkExpect(w.board.indexOf(w.copter.posn), twin.board.indexOf(twin.copter.posn));
+        t.checkExpect(w.board.indexOf(w.players.get(0).posn), twin.board.indexOf(twin.players.get(0).posn));
+        t.checkExpect(w.floodMap.board == w.board && w.spawns.board == w.board, true);
+        // the boards for the generation just used are dropped, and the next
+        // ones made
+        t.checkExpect(this.awaitReady(pool, 3), true);
+        t.checkExpect(pool.boards.containsKey(BoardPool.key("m", w.random.generation + 1)), true);
+        t.checkExpect(pool.boards.containsKey(BoardPool.key("m", w.random.generation)), false);
+        w.reset("t");
+        twin.reset("t");
+        t.checkExpect(pool.hits.sum(), 2L);
+        t.checkExpect(Arrays.equals(w.board.heights, twin.board.heights), true);
+        // heightmaps are not pooled
+        t.checkExpect(pool.take("f", w.random) == null, true);
+        t.checkExpect(pool.misses.sum(), 0L);
+        pool.close();
+        // once one board is known not to fit, no more are made
+        ForbiddenIslandWorld tight = new ForbiddenIslandWorld("m", 5);
+        BoardPool small = tight.usePool(2, 1);
+        t.checkExpect(this.awaitReady(small, 1), true);
+        small.refill(tight.random.generation);
+        t.checkExpect(small.boards.size(), 1);
+        t.checkExpect(small.skipped.sum() > 0, true);
+        tight.reset("r");
+        t.checkExpect(small.misses.sum(), 1L);
+        t.checkExpect(small.heldBytes() <= small.largest, true);
+        small.close();
+        // a board dropped between being counted and its task finishing gives
+        // its bytes back
+        BoardPool gap = new BoardPool(5, 16, 1, 1L << 30);
+        gap.close();
+        long key = BoardPool.key("m", 1);
+        gap.boards.put(key, new FutureTask<PreparedBoard>(() -> null));
+        gap.make("m", 1, key);
+        t.checkExpect(gap.heldBytes() > 0, true);
+        synchronized(gap) {
+            gap.discardBefore(2);
+        }
+        t.checkExpect(gap.heldBytes(), 0L);
+        t.checkExpect(gap.held.isEmpty(), true);
+        // a board still queued behind others is made by the reset itself
+        BoardPool queued = new BoardPool(5, 16, 1, 1L << 30);
+        CountDownLatch busy = new CountDownLatch(1);
+        queued.builders.execute(() -> {
+            try {
+                busy.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queued.largest = 1;
+        queued.refill(0);
+        t.checkExpect(queued.boards.size(), 3);
+        PreparedBoard made = queued.take("t", GameRandom.atBoard(5, 1));
+        t.checkExpect(made != null, true);
+        t.checkExpect(busy.getCount(), 1L);
+        t.checkExpect(queued.waits.sum(), 1L);
+        t.checkExpect(queued.heldBytes(), 0L);
+        ForbiddenIslandWorld fresh = new ForbiddenIslandWorld(16, GameRandom.atBoard(5, 1));
+        t.checkExpect(Arrays.equals(made.board.heights, fresh.makeBoard("t").heights), true);
+        busy.countDown();
+        queued.close();
+    }
+    void testCamera(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 3);
+        w.pause = false;
+        Camera camera = new Camera(160, 80);
+        w.camera = camera;
+        Player p = w.players.get(0);
+        FrameState state = new FrameState(w);
+        t.checkExpect(state.view.centerX, p.posn.x);
+        t.checkExpect(state.view.centerY, p.posn.y);
+        t.checkExpect(camera.centerX, 0);
+        t.checkExpect(state.view != camera && state.view.cache == camera, true);
+        // at 8 pixels a cell, 20 by 10 cells are drawn, kept on the board
+        WorldImage image = state.render(null);
+        t.checkExpect(image != null, true);
+        t.checkExpect(camera.view.getWidth(), 20);
+        t.checkExpect(camera.view.getHeight(), 10);
+        LodLevel board = camera.level(w.board, w.floodMap);
+        int left = state.view.left(board, 20);
+        int top = state.view.top(board, 10);
+        t.checkExpect(left >= 0 && left + 20 <= w.board.width, true);
+        t.checkExpect(top >= 0 && top + 10 <= w.board.height, true);
+        t.checkExpect(camera.pixels[0], board.colorAt(left, top, w.waterHeight).getRGB());
+        // the board is centred when smaller than the screen
+        t.checkExpect(Camera.firstShown(30, 100, 64), -18);
+        t.checkExpect(Camera.firstShown(2, 10, 64), 0);
+        t.checkExpect(Camera.firstShown(63, 10, 64), 54);
+        // zooming is bounded and builds a level of detail per step out
+        // the keys wait for the tick, and are not logged as moves
+        w.onKeyEvent("-");
+        w.onKeyEvent("-");
+        w.onKeyEvent("-");
+        t.checkExpect(camera.zoom, 3);
+        try {
+            Path logged = Files.createTempFile("island", ".log");
+            w.log = new InputLog(logged);
+            w.applyInputs();
+            t.checkExpect(w.log.buffer.position(), 0);
+            w.log.close();
+            w.log = null;
+            Files.delete(logged);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        t.checkExpect(camera.zoom, 0);
+        w.onKeyEvent("-");
+        w.applyInputs();
+        t.checkExpect(camera.zoom, -1);
+        LodLevel half = camera.level(w.board, w.floodMap);
+        t.checkExpect(half.block, 2);
+        t.checkExpect(half.width, (w.board.width + 1) / 2);
+        t.checkExpect(camera.cache.levels.size(), 2);
+        double mean = (w.board.heights[0] + w.board.heights[1]
+                + w.board.heights[w.board.width] + w.board.heights[w.board.width + 1]) / 4;
+        t.checkInexact(half.heights[0], mean, 0.001);
+        int[] floods = {w.floodMap.floodHeight[0], w.floodMap.floodHeight[1],
+                w.floodMap.floodHeight[w.board.width], w.floodMap.floodHeight[w.board.width + 1]};
+        Arrays.sort(floods);
+        t.checkExpect(half.floodHeights[0], floods[2]);
+        for(int i = 0; i < 10; i++) {
+            w.onKeyEvent("-");
+            w.onKeyEvent("=");
+            w.onKeyEvent("+");
+        }
+        w.applyInputs();
+        t.checkExpect(camera.zoom, Camera.MAX_ZOOM);
+        // panning starts from the player followed, then stops following
+        // until c is pressed
+        w.onKeyEvent("l");
+        w.applyInputs();
+        t.checkExpect(camera.follow, false);
+        t.checkExpect(camera.centerX > p.posn.x, true);
+        t.checkExpect(new FrameState(w).view.centerX, camera.centerX);
+        w.onKeyEvent("c");
+        w.applyInputs();
+        t.checkExpect(new FrameState(w).view.centerX, p.posn.x);
+        // a player off screen is not drawn, and a frame is the same size on
+        // any board
+        camera.zoom = 3;
+        camera.follow = false;
+        camera.centerX = 0;
+        camera.centerY = 0;
+        LodLevel level = camera.level(w.board, w.floodMap);
+        WorldImage bare = new RasterImage(new Posn(0, 0), camera.view, 8);
+        t.checkExpect(camera.place(bare, Assets.HINT, w.board, w.board.cells.length - 1, level, 0, 0, 20, 10) == bare, true);
+        t.checkExpect(camera.place(bare, Assets.HINT, w.board, 0, level, 0, 0, 20, 10) != bare, true);
+        ForbiddenIslandWorld big = new ForbiddenIslandWorld("t", 1, 256);
+        big.pause = false;
+        t.checkExpect(big.useCamera(160, 80) == big.camera, true);
+        big.camera.zoom = 3;
+        big.drawWorld();
+        t.checkExpect(big.camera.view.getWidth(), 20);
+    }
+    void testFrameRecorder(Tester t) {
+        ForbiddenIslandWorld w = new ForbiddenIslandWorld("m", 3);
+        w.pause = false;
+        try {
+            Path dir = Files.createTempDirectory("island-frames");
+            // with no encoder running the ring fills, then frames are dropped
+            FrameRecorder idle = new FrameRecorder(dir.toFile(), 4);
+            for(int i = 0; i < 6; i++) {
+                t.checkExpect(idle.capture(w), i < 4);
+            }
+            t.checkExpect(idle.dropped.sum(), 2L);
+            t.checkExpect(idle.slots.get(3).tick, w.tick);
+            // a recording writes each tick it keeps up with, in order
+            FrameRecorder recorder = w.recordFrames(dir.toFile());
+            for(int i = 0; i < 10; i++) {
+                w.step();
+            }
+            w.stopRecordingFrames();
+            t.checkExpect(w.recorder, null);
+            recorder.awaitWritten();
+            t.checkExpect(recorder.written + recorder.dropped.sum(), 10L);
+            t.checkExpect(recorder.failed, 0L);
+            t.checkExpect(recorder.written > 0, true);
+            t.checkExpect(recorder.capture(w), false);
+            BufferedImage first = ImageIO.read(recorder.fileFor(0));
+            t.checkExpect(first.getWidth(), w.board.width * 8);
+            t.checkExpect(first.getRGB(0, 0), CellPalette.colorOf(true, 0, 0).getRGB());
+            t.checkExpect(recorder.fileFor(recorder.written).exists(), false);
+            // a camera's view is recorded as the camera shows it
+            w.camera = new Camera(160, 80);
+            recorder = w.recordFrames(dir.toFile());
+            w.step();
+            w.stopRecordingFrames();
+            recorder.awaitWritten();
+            t.checkExpect(recorder.written, 1L);
+            t.checkExpect(ImageIO.read(recorder.fileFor(0)).getWidth(), 160);
+            t.checkExpect(recorder.drawer.camera != null, true);
+            t.checkExpect(recorder.drawer.camera != w.camera, true);
+            t.checkExpect(w.camera.cache == w.camera, true);
+            // capturing reads the camera without moving it
+            w.camera.follow = true;
+            w.camera.centerX = -5;
+            FrameState state = new FrameState(w);
+            t.checkExpect(w.camera.centerX, -5);
+            t.checkExpect(state.view.centerX, w.players.get(0).posn.x);
+            // v starts and stops recording, and is not a move
+            File made = new File(FrameRecorder.DIRECTORY);
+            boolean existed = made.exists();
+            int queued = w.inputs.pending.get();
+            w.onKeyEvent("v");
+            FrameRecorder keyed = w.recorder;
+            t.checkExpect(keyed != null, true);
+            t.checkExpect(keyed.directory.equals(made), true);
+            w.onKeyEvent("v");
+            t.checkExpect(w.recorder, null);
+            t.checkExpect(keyed.closed, true);
+            keyed.awaitWritten();
+            t.checkExpect(keyed.encoder.isAlive(), false);
+            t.checkExpect(w.inputs.pending.get(), queued);
+            if(!existed) {
+                made.delete();
+            }
+            for(File f: dir.toFile().listFiles()) {
+                f.delete();
+            }
+            Files.delete(dir);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
     void testRenderCell(Tester t) {
         Cell c = new Cell(1, 1, 1, null, null, null, null, false);
         WorldImage img = c.renderCell(0);
@@ -680,7 +5635,20 @@ class ExamplesForbiddenIsland {
     }
     void testGame(Tester t) {
         this.initRegMount();
-        w1.bigBang(8*ForbiddenIslandWorld.ISLAND_SIZE + 8, 8*ForbiddenIslandWorld.ISLAND_SIZE + 8, .15);
+        w1.usePool(2, 64 << 20);
+        // -Dheightmap=<raw file> plays a heightmap, read as HeightmapFile says
+        String heightmap = System.getProperty("heightmap");
+        if(heightmap != null) {
+            try {
+                w1.useHeightmap(Path.of(heightmap));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Camera camera = w1.useCamera(640, 480);
+        w1.useLoop();
+        w1.bigBang(camera.width, camera.height, .15);
         t.checkExpect(1, 1);
     }
     